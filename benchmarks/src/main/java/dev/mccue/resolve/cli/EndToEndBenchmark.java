@@ -0,0 +1,74 @@
+package dev.mccue.resolve.cli;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole commands, as a user would run them.
+ *
+ * <p>A cold cache starts every invocation empty, so everything is downloaded from the
+ * synthetic repository. A warm cache already has every pom and jar, which is the
+ * common case on a developer machine. Each invocation gets a fresh {@link Session},
+ * the same as a new process would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EndToEndBenchmark {
+    @Param({"cold", "warm"})
+    public String cache;
+
+    private Fixture fixture;
+    private Path cachePath;
+    private Session session;
+
+    @Setup(Level.Trial)
+    public void createFixture() throws IOException {
+        fixture = Fixture.create(SyntheticRepository.Shape.DEFAULT);
+        cachePath = fixture.root().resolve("cache-" + cache);
+        if (cache.equals("warm")) {
+            var args = fixture.baseArgs(cachePath);
+            args.add("--dependency-file");
+            args.add(fixture.dependencyFile().toString());
+            fixture.run(fixture.root(), new Session(), args);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() throws IOException {
+        if (cache.equals("cold")) {
+            Fixture.deleteRecursively(cachePath);
+        }
+        // Otherwise install would find every set up to date and do nothing
+        Fixture.deleteRecursively(fixture.project().resolve("dependencySets"));
+        session = new Session();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeFixture() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void resolve() {
+        var args = fixture.baseArgs(cachePath);
+        args.add("--dependency-file");
+        args.add(fixture.dependencyFile().toString());
+        args.add("--output-file");
+        args.add(fixture.root().resolve("path").toString());
+        fixture.run(fixture.root(), session, args);
+    }
+
+    @Benchmark
+    public void install() {
+        var args = fixture.baseArgs(cachePath);
+        args.add("install");
+        fixture.run(fixture.project(), session, args);
+    }
+}
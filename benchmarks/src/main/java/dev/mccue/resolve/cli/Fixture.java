@@ -0,0 +1,159 @@
+package dev.mccue.resolve.cli;
+
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A synthetic repository being served, plus the inputs a benchmark hands to the CLI.
+ *
+ * <pre>
+ * root/
+ *   repository/         the generated repository
+ *   repositories.json   points central at the server
+ *   deps                one package url per root artifact
+ *   project/            a jproject.toml with a few dependency sets
+ * </pre>
+ */
+final class Fixture implements AutoCloseable {
+    private final Path root;
+    private final SyntheticRepository repository;
+    private final RepositoryServer server;
+
+    private Fixture(Path root, SyntheticRepository repository, RepositoryServer server) {
+        this.root = root;
+        this.repository = repository;
+        this.server = server;
+    }
+
+    static Fixture create(SyntheticRepository.Shape shape) throws IOException {
+        var root = Files.createTempDirectory("jresolve-bench");
+        var repository = SyntheticRepository.generate(root.resolve("repository"), shape);
+        var server = RepositoryServer.start(repository.root());
+
+        Files.writeString(root.resolve("repositories.json"), server.repositoriesFile());
+        Files.write(
+                root.resolve("deps"),
+                repository.roots().stream().map(SyntheticRepository.Artifact::packageUrl).toList()
+        );
+
+        var project = root.resolve("project");
+        Files.createDirectories(project);
+        var toml = new StringBuilder();
+        toml.append("[project]\n");
+        toml.append("defaultUsage = \"--class-path\"\n");
+        toml.append("dependencySets.test.extends = \"default\"\n");
+        toml.append("dependencies = [\n");
+        var roots = repository.roots();
+        for (int i = 0; i < roots.size(); i++) {
+            // Every third root only goes in the test set, so the sets resolve different graphs
+            toml.append("    { coordinate = \"")
+                    .append(roots.get(i).packageUrl())
+                    .append("\", dependencySets = \"")
+                    .append(i % 3 == 2 ? "test" : "default")
+                    .append("\" },\n");
+        }
+        toml.append("]\n");
+        Files.writeString(project.resolve("jproject.toml"), toml.toString());
+
+        return new Fixture(root, repository, server);
+    }
+
+    Path root() {
+        return root;
+    }
+
+    SyntheticRepository repository() {
+        return repository;
+    }
+
+    Path repositoriesFile() {
+        return root.resolve("repositories.json");
+    }
+
+    Path dependencyFile() {
+        return root.resolve("deps");
+    }
+
+    Path project() {
+        return root.resolve("project");
+    }
+
+    /**
+     * Runs the CLI as a fresh process would, but in this one. Output is discarded.
+     *
+     * @throws IllegalStateException if the command fails, so a broken benchmark
+     *                               can't quietly measure how fast it fails.
+     */
+    void run(Path workingDirectory, Session session, List<String> args) {
+        var out = new PrintWriter(Writer.nullWriter());
+        var errors = new StringWriter();
+        var err = new PrintWriter(errors);
+        var exitCode = new CommandLine(new CliMain(out, err, workingDirectory, session))
+                .setOut(out)
+                .setErr(err)
+                .execute(args.toArray(String[]::new));
+        err.flush();
+        if (exitCode != 0) {
+            throw new IllegalStateException(
+                    "jresolve " + String.join(" ", args) + " exited with " + exitCode + "\n" + errors
+            );
+        }
+    }
+
+    /**
+     * Arguments every command needs to use this fixture's repository and the given cache.
+     */
+    List<String> baseArgs(Path cache) {
+        var args = new ArrayList<String>();
+        args.add("--maven-repositories-file");
+        args.add(repositoriesFile().toString());
+        args.add("--cache-path");
+        args.add(cache.toString());
+        return args;
+    }
+
+    /**
+     * Every jar under the given directory, in a stable order.
+     */
+    static List<Path> jars(Path directory) throws IOException {
+        try (var files = Files.walk(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".jar"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        deleteRecursively(root);
+    }
+}
@@ -0,0 +1,63 @@
+package dev.mccue.resolve.cli;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the module names of every jar in the synthetic repository, as
+ * {@code --use-module-names} does.
+ *
+ * <ul>
+ *     <li>{@code cold} has no index, so every jar is opened.</li>
+ *     <li>{@code persisted} loads a complete index from disk, like a new process would.</li>
+ *     <li>{@code resident} reuses an index already in memory, like the daemon does.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ModuleNameBenchmark {
+    @Param({"cold", "persisted", "resident"})
+    public String index;
+
+    private Path root;
+    private Path indexFile;
+    private List<Path> jars;
+    private ModuleNameIndex resident;
+
+    @Setup(Level.Trial)
+    public void createRepository() throws IOException, InterruptedException {
+        root = Files.createTempDirectory("jresolve-bench");
+        var repository = SyntheticRepository.generate(root.resolve("repository"), SyntheticRepository.Shape.DEFAULT);
+        indexFile = root.resolve("module-names.json");
+        jars = Fixture.jars(repository.root());
+
+        resident = ModuleNameIndex.load(indexFile);
+        resident.moduleNames(jars);
+        resident.save();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRepository() throws IOException {
+        Fixture.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public Map<Path, List<String>> moduleNames() throws IOException, InterruptedException {
+        var moduleNameIndex = switch (index) {
+            case "cold" -> ModuleNameIndex.load(root.resolve("missing.json"));
+            case "persisted" -> ModuleNameIndex.load(indexFile);
+            default -> resident;
+        };
+        return moduleNameIndex.moduleNames(jars);
+    }
+}
@@ -0,0 +1,66 @@
+package dev.mccue.resolve.cli;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Placing every jar of the synthetic repository into an output directory.
+ *
+ * <p>Without sync the directory starts empty every invocation. With sync it is left
+ * as the previous invocation populated it, so this measures finding nothing changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OutputDirectoryBenchmark {
+    @Param({"copy", "hardlink", "symlink"})
+    public LinkMode linkMode;
+
+    @Param({"false", "true"})
+    public boolean sync;
+
+    private Path root;
+    private Path directory;
+    private Map<String, Path> artifacts;
+
+    @Setup(Level.Trial)
+    public void createRepository() throws IOException {
+        root = Files.createTempDirectory("jresolve-bench");
+        var repository = SyntheticRepository.generate(root.resolve("repository"), SyntheticRepository.Shape.DEFAULT);
+        directory = root.resolve("libs");
+        artifacts = new LinkedHashMap<>();
+        for (var jar : Fixture.jars(repository.root())) {
+            artifacts.put(jar.getFileName().toString(), jar);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() throws IOException {
+        if (!sync) {
+            Fixture.deleteRecursively(directory);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRepository() throws IOException {
+        Fixture.deleteRecursively(root);
+    }
+
+    // Returned as an Object since the generated harness can't see the package private Result
+    @Benchmark
+    public Object populate() throws IOException {
+        return new OutputDirectory(directory, new CacheLayout(root.resolve("repository")), linkMode, sync, new PrintWriter(Writer.nullWriter()))
+                .populate(artifacts);
+    }
+}
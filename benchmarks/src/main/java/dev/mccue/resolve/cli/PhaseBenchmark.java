@@ -0,0 +1,105 @@
+package dev.mccue.resolve.cli;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The phases of a run that can be isolated from the command line.
+ *
+ * <ul>
+ *     <li>{@code resolve} prints the tree against a warm cache, so it is resolution alone.</li>
+ *     <li>{@code fetch} has every pom cached but no jars, so beyond a warm resolve it is
+ *     downloading artifacts.</li>
+ *     <li>{@code enrichPom} rewrites a pom from a warm cache.</li>
+ * </ul>
+ *
+ * Populating an output directory and scanning module names are measured directly in
+ * {@link OutputDirectoryBenchmark} and {@link ModuleNameBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PhaseBenchmark {
+    private static final String POM = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <project xmlns="http://maven.apache.org/POM/4.0.0">
+                <modelVersion>4.0.0</modelVersion>
+                <groupId>dev.mccue.synthetic</groupId>
+                <artifactId>app</artifactId>
+                <version>1.0.0</version>
+            </project>
+            """;
+
+    private Fixture fixture;
+    private Path cachePath;
+    private Path pom;
+
+    @Setup(Level.Trial)
+    public void createFixture() throws IOException {
+        fixture = Fixture.create(SyntheticRepository.Shape.DEFAULT);
+        cachePath = fixture.root().resolve("cache");
+        pom = fixture.root().resolve("pom.xml");
+        var args = fixture.baseArgs(cachePath);
+        args.add("--dependency-file");
+        args.add(fixture.dependencyFile().toString());
+        fixture.run(fixture.root(), new Session(), args);
+    }
+
+    @Setup(Level.Invocation)
+    public void reset(BenchmarkParams params) throws IOException {
+        if (params.getBenchmark().endsWith(".fetch")) {
+            for (var jar : Fixture.jars(cachePath)) {
+                Files.delete(jar);
+            }
+            // Otherwise the index still lists the jars and nothing is downloaded again
+            var index = cachePath.resolve("cache-index.txt");
+            if (Files.exists(index)) {
+                Files.write(index, Files.readAllLines(index)
+                        .stream()
+                        .filter(line -> !line.endsWith(".jar"))
+                        .toList());
+            }
+        }
+        Files.writeString(pom, POM);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeFixture() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void resolve() {
+        var args = fixture.baseArgs(cachePath);
+        args.add("--dependency-file");
+        args.add(fixture.dependencyFile().toString());
+        args.add("--print-tree");
+        fixture.run(fixture.root(), new Session(), args);
+    }
+
+    @Benchmark
+    public void fetch() {
+        var args = fixture.baseArgs(cachePath);
+        args.add("--dependency-file");
+        args.add(fixture.dependencyFile().toString());
+        fixture.run(fixture.root(), new Session(), args);
+    }
+
+    @Benchmark
+    public void enrichPom() {
+        var args = fixture.baseArgs(cachePath);
+        args.add("--dependency-file");
+        args.add(fixture.dependencyFile().toString());
+        args.add("--enrich-pom");
+        args.add(pom.toString());
+        fixture.run(fixture.root(), new Session(), args);
+    }
+}
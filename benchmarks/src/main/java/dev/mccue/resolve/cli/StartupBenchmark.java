@@ -0,0 +1,293 @@
+package dev.mccue.resolve.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * How long each distribution of the CLI takes to start, measured by launching it as a
+ * separate process. This can't be a JMH benchmark like the others, since what is being
+ * measured is everything that happens before the first line of {@code main}.
+ *
+ * <p>Each distribution runs {@code --version} and a resolution against a warm cache served by
+ * a {@link Fixture}. For every run it records the time until the first byte of output and the
+ * peak resident set size, which comes from {@code /usr/bin/time} when it is installed and
+ * otherwise from sampling {@code /proc} on Linux, which can miss the very end of a run.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar dev.mccue.resolve.cli.StartupBenchmark \
+ *     --runs 20 --output startup.tsv --baseline startup-main.tsv
+ * </pre>
+ *
+ * <p>By default the distributions built by the {@code Justfile} are used when they exist: the
+ * jar and its dependencies on the JVM, the {@code release} jlink image and the {@code exe}
+ * native executable. Others can be given as {@code --distribution name=command}. With a
+ * baseline, it exits with 1 if the median time to first output of anything got slower by
+ * more than {@code --threshold} percent.
+ */
+public final class StartupBenchmark {
+    private static final Pattern GNU_TIME = Pattern.compile("^(\\d+)$");
+    private static final Pattern BSD_TIME = Pattern.compile("^\\s*(\\d+)\\s+maximum resident set size");
+
+    private record Run(double firstOutputMillis, double totalMillis, long peakRssKb) {}
+
+    record Result(String distribution, String scenario, double firstOutputMillis, double totalMillis, long peakRssKb) {
+        String toLine() {
+            return String.format(
+                    Locale.US,
+                    "%s\t%s\t%.1f\t%.1f\t%d",
+                    distribution,
+                    scenario,
+                    firstOutputMillis,
+                    totalMillis,
+                    peakRssKb
+            );
+        }
+
+        static Result fromLine(String line) {
+            var parts = line.split("\t");
+            return new Result(
+                    parts[0],
+                    parts[1],
+                    Double.parseDouble(parts[2]),
+                    Double.parseDouble(parts[3]),
+                    Long.parseLong(parts[4])
+            );
+        }
+    }
+
+    private StartupBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        var runs = 10;
+        var threshold = 20.0;
+        Path output = null;
+        Path baseline = null;
+        var distributions = new LinkedHashMap<String, List<String>>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runs" -> runs = Integer.parseInt(args[++i]);
+                case "--threshold" -> threshold = Double.parseDouble(args[++i]);
+                case "--output" -> output = Path.of(args[++i]);
+                case "--baseline" -> baseline = Path.of(args[++i]);
+                case "--distribution" -> {
+                    var distribution = args[++i].split("=", 2);
+                    distributions.put(distribution[0], List.of(distribution[1].trim().split("\\s+")));
+                }
+                default -> throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+        if (distributions.isEmpty()) {
+            distributions.putAll(defaultDistributions());
+        }
+        if (distributions.isEmpty()) {
+            System.err.println("No distributions found. Build one with just exe, just release or mvn package first.");
+            System.exit(1);
+        }
+
+        var results = new ArrayList<Result>();
+        try (var fixture = Fixture.create(SyntheticRepository.Shape.DEFAULT)) {
+            for (var distribution : distributions.entrySet()) {
+                var cache = fixture.root().resolve("cache-" + distribution.getKey());
+                var resolve = new ArrayList<>(fixture.baseArgs(cache));
+                resolve.add("--dependency-file");
+                resolve.add(fixture.dependencyFile().toString());
+
+                var scenarios = new LinkedHashMap<String, List<String>>();
+                scenarios.put("version", List.of("--version"));
+                scenarios.put("warm-resolve", resolve);
+                for (var scenario : scenarios.entrySet()) {
+                    var command = new ArrayList<>(distribution.getValue());
+                    command.addAll(scenario.getValue());
+
+                    // Not counted, and for the resolution what warms the cache
+                    run(command);
+                    var measured = new ArrayList<Run>();
+                    for (int i = 0; i < runs; i++) {
+                        measured.add(run(command));
+                    }
+                    var result = new Result(
+                            distribution.getKey(),
+                            scenario.getKey(),
+                            median(measured.stream().map(Run::firstOutputMillis).toList()),
+                            median(measured.stream().map(Run::totalMillis).toList()),
+                            measured.stream().mapToLong(Run::peakRssKb).max().orElse(-1)
+                    );
+                    results.add(result);
+                    System.out.printf(
+                            Locale.US,
+                            "%-8s %-14s first output %8.1f ms   total %8.1f ms   peak RSS %s%n",
+                            result.distribution(),
+                            result.scenario(),
+                            result.firstOutputMillis(),
+                            result.totalMillis(),
+                            result.peakRssKb() < 0 ? "unknown" : String.format(Locale.US, "%.1f MB", result.peakRssKb() / 1024.0)
+                    );
+                }
+            }
+        }
+
+        if (output != null) {
+            var lines = new ArrayList<String>();
+            lines.add("# distribution\tscenario\tfirstOutputMillis\ttotalMillis\tpeakRssKb");
+            results.forEach(result -> lines.add(result.toLine()));
+            Files.write(output, lines);
+        }
+
+        if (baseline != null && regressed(baseline, results, threshold)) {
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, List<String>> defaultDistributions() {
+        var distributions = new LinkedHashMap<String, List<String>>();
+        if (Files.isDirectory(Path.of("target", "classes")) && Files.isDirectory(Path.of("target", "dependency"))) {
+            distributions.put("jvm", List.of(
+                    Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "--module-path",
+                    "target/dependency" + File.pathSeparator + "target/classes",
+                    "--module",
+                    "dev.mccue.resolve.cli/dev.mccue.resolve.cli.CliMain"
+            ));
+        }
+        var jlinked = Path.of("target", "jlinked-jre", "bin", "jresolve");
+        if (Files.isExecutable(jlinked)) {
+            distributions.put("jlink", List.of(jlinked.toString()));
+        }
+        var exe = Path.of("jresolve");
+        if (Files.isExecutable(exe) && Files.isRegularFile(exe)) {
+            distributions.put("native", List.of(exe.toAbsolutePath().toString()));
+        }
+        return distributions;
+    }
+
+    private static Run run(List<String> command) throws IOException, InterruptedException {
+        var time = Path.of("/usr/bin/time");
+        var wrapped = new ArrayList<String>();
+        if (Files.isExecutable(time)) {
+            wrapped.add(time.toString());
+            if (System.getProperty("os.name", "").toLowerCase(Locale.US).contains("mac")) {
+                wrapped.add("-l");
+            } else {
+                wrapped.addAll(List.of("-f", "%M"));
+            }
+        }
+        wrapped.addAll(command);
+
+        var start = System.nanoTime();
+        var process = new ProcessBuilder(wrapped).start();
+        var sampled = new long[]{-1};
+        var sampler = Thread.ofVirtual().start(() -> sampleRss(process, sampled));
+        var errors = new StringBuilder();
+        var stderr = Thread.ofVirtual().start(() -> {
+            try {
+                errors.append(new String(process.getErrorStream().readAllBytes()));
+            } catch (IOException e) {
+                // Nothing more to read
+            }
+        });
+
+        long firstOutput;
+        try (InputStream stdout = process.getInputStream()) {
+            if (stdout.read() < 0) {
+                // Only read once the process has let go of stderr, or the reason could be cut short
+                var exitCode = process.waitFor();
+                stderr.join();
+                sampler.join();
+                throw new IllegalStateException(
+                        String.join(" ", command) + " printed nothing and exited with " + exitCode + "\n" + errors
+                );
+            }
+            firstOutput = System.nanoTime();
+            stdout.transferTo(OutputStream.nullOutputStream());
+        }
+        var exitCode = process.waitFor();
+        var end = System.nanoTime();
+        stderr.join();
+        sampler.join();
+        if (exitCode != 0) {
+            throw new IllegalStateException(String.join(" ", command) + " exited with " + exitCode + "\n" + errors);
+        }
+
+        var peakRssKb = sampled[0];
+        for (var line : errors.toString().lines().toList()) {
+            var gnu = GNU_TIME.matcher(line);
+            var bsd = BSD_TIME.matcher(line);
+            if (gnu.find()) {
+                peakRssKb = Long.parseLong(gnu.group(1));
+            } else if (bsd.find()) {
+                peakRssKb = Long.parseLong(bsd.group(1)) / 1024;
+            }
+        }
+        return new Run((firstOutput - start) / 1e6, (end - start) / 1e6, peakRssKb);
+    }
+
+    /*
+     * The high water mark the kernel keeps for the process, read for as long as it can be.
+     */
+    private static void sampleRss(Process process, long[] peakRssKb) {
+        var status = Path.of("/proc", Long.toString(process.pid()), "status");
+        while (process.isAlive()) {
+            try {
+                for (var line : Files.readAllLines(status)) {
+                    if (line.startsWith("VmHWM:")) {
+                        peakRssKb[0] = Math.max(peakRssKb[0], Long.parseLong(line.replaceAll("\\D", "")));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                return;
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static double median(List<Double> values) {
+        var sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        var middle = sorted.size() / 2;
+        return sorted.size() % 2 == 1
+                ? sorted.get(middle)
+                : (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+    }
+
+    private static boolean regressed(Path baseline, List<Result> results, double threshold) throws IOException {
+        var previous = new HashMap<String, Result>();
+        for (var line : Files.readAllLines(baseline)) {
+            if (!line.isBlank() && !line.startsWith("#")) {
+                var result = Result.fromLine(line);
+                previous.put(result.distribution() + " " + result.scenario(), result);
+            }
+        }
+
+        var regressed = false;
+        for (var result : results) {
+            var before = previous.get(result.distribution() + " " + result.scenario());
+            if (before == null) {
+                continue;
+            }
+            var change = 100 * (result.firstOutputMillis() - before.firstOutputMillis()) / before.firstOutputMillis();
+            if (change > threshold) {
+                System.out.printf(
+                        Locale.US,
+                        "Regression: %s %s took %.1f ms to first output, %.0f%% slower than %.1f ms%n",
+                        result.distribution(),
+                        result.scenario(),
+                        result.firstOutputMillis(),
+                        change,
+                        before.firstOutputMillis()
+                );
+                regressed = true;
+            }
+        }
+        return regressed;
+    }
+}
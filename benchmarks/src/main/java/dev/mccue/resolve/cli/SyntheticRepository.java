@@ -0,0 +1,194 @@
+package dev.mccue.resolve.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Generates a maven repository on disk with a graph shaped like a real one, only bigger.
+ *
+ * <p>Artifacts are arranged in layers. Each artifact depends on a handful of artifacts in
+ * the layer below it, so the graph is both wide and deep, and every artifact is published
+ * in more than one version with dependents picking different ones, so resolution has
+ * version conflicts to settle. Half of the jars declare an {@code Automatic-Module-Name}.
+ *
+ * <p>Everything is derived from a fixed seed and written with fixed timestamps, so the
+ * same shape always produces byte for byte the same repository.
+ */
+final class SyntheticRepository {
+    static final String GROUP = "dev.mccue.synthetic";
+
+    record Shape(int depth, int width, int fanOut, int versions, int jarSize, long seed) {
+        static final Shape DEFAULT = new Shape(8, 40, 4, 3, 16 * 1024, 42);
+
+        int artifacts() {
+            return depth * width * versions;
+        }
+    }
+
+    record Artifact(int layer, int index, String version) {
+        String artifactId() {
+            return "l" + layer + "-a" + index;
+        }
+
+        String packageUrl() {
+            return "pkg:maven/" + GROUP + "/" + artifactId() + "@" + version;
+        }
+
+        String moduleName() {
+            return GROUP + ".l" + layer + ".a" + index;
+        }
+    }
+
+    private static final long TIMESTAMP = 946684800000L;
+
+    private final Path root;
+    private final Shape shape;
+    private final List<Artifact> roots;
+
+    private SyntheticRepository(Path root, Shape shape, List<Artifact> roots) {
+        this.root = root;
+        this.shape = shape;
+        this.roots = roots;
+    }
+
+    static SyntheticRepository generate(Path root, Shape shape) throws IOException {
+        var random = new Random(shape.seed());
+        for (int layer = 0; layer < shape.depth(); layer++) {
+            for (int index = 0; index < shape.width(); index++) {
+                for (int v = 0; v < shape.versions(); v++) {
+                    var artifact = new Artifact(layer, index, version(v));
+                    var dependencies = new ArrayList<Artifact>();
+                    if (layer + 1 < shape.depth()) {
+                        var picked = new TreeSet<Integer>();
+                        while (picked.size() < Math.min(shape.fanOut(), shape.width())) {
+                            picked.add(random.nextInt(shape.width()));
+                        }
+                        for (var dependency : picked) {
+                            dependencies.add(new Artifact(
+                                    layer + 1,
+                                    dependency,
+                                    version(random.nextInt(shape.versions()))
+                            ));
+                        }
+                    }
+                    write(root, artifact, dependencies, shape.jarSize(), random);
+                }
+            }
+        }
+
+        var roots = new ArrayList<Artifact>();
+        for (int index = 0; index < shape.width(); index += 4) {
+            roots.add(new Artifact(0, index, version(shape.versions() - 1)));
+        }
+        return new SyntheticRepository(root, shape, List.copyOf(roots));
+    }
+
+    Path root() {
+        return root;
+    }
+
+    Shape shape() {
+        return shape;
+    }
+
+    /**
+     * Top level artifacts which, together, pull in most of the repository.
+     */
+    List<Artifact> roots() {
+        return roots;
+    }
+
+    private static String version(int v) {
+        return "1." + v + ".0";
+    }
+
+    private static void write(
+            Path root,
+            Artifact artifact,
+            List<Artifact> dependencies,
+            int jarSize,
+            Random random
+    ) throws IOException {
+        var directory = root.resolve(GROUP.replace('.', '/'))
+                .resolve(artifact.artifactId())
+                .resolve(artifact.version());
+        Files.createDirectories(directory);
+        var baseName = artifact.artifactId() + "-" + artifact.version();
+
+        var pom = new StringBuilder();
+        pom.append("""
+                <?xml version="1.0" encoding="UTF-8"?>
+                <project xmlns="http://maven.apache.org/POM/4.0.0">
+                    <modelVersion>4.0.0</modelVersion>
+                """);
+        pom.append("    <groupId>").append(GROUP).append("</groupId>\n");
+        pom.append("    <artifactId>").append(artifact.artifactId()).append("</artifactId>\n");
+        pom.append("    <version>").append(artifact.version()).append("</version>\n");
+        pom.append("    <packaging>jar</packaging>\n");
+        if (!dependencies.isEmpty()) {
+            pom.append("    <dependencies>\n");
+            for (var dependency : dependencies) {
+                pom.append("        <dependency>\n");
+                pom.append("            <groupId>").append(GROUP).append("</groupId>\n");
+                pom.append("            <artifactId>").append(dependency.artifactId()).append("</artifactId>\n");
+                pom.append("            <version>").append(dependency.version()).append("</version>\n");
+                pom.append("        </dependency>\n");
+            }
+            pom.append("    </dependencies>\n");
+        }
+        pom.append("</project>\n");
+        writeWithChecksum(directory.resolve(baseName + ".pom"), pom.toString().getBytes(StandardCharsets.UTF_8));
+
+        writeWithChecksum(directory.resolve(baseName + ".jar"), jar(artifact, jarSize, random));
+    }
+
+    private static byte[] jar(Artifact artifact, int size, Random random) throws IOException {
+        var manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (artifact.index() % 2 == 0) {
+            manifest.getMainAttributes().put(new Attributes.Name("Automatic-Module-Name"), artifact.moduleName());
+        }
+
+        var bytes = new ByteArrayOutputStream();
+        try (var jar = new JarOutputStream(bytes)) {
+            var manifestEntry = new JarEntry("META-INF/MANIFEST.MF");
+            manifestEntry.setTime(TIMESTAMP);
+            jar.putNextEntry(manifestEntry);
+            manifest.write(jar);
+            jar.closeEntry();
+
+            var payload = new byte[size];
+            random.nextBytes(payload);
+            var entry = new JarEntry(artifact.moduleName().replace('.', '/') + "/Payload.bin");
+            entry.setTime(TIMESTAMP);
+            jar.putNextEntry(entry);
+            jar.write(payload);
+            jar.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeWithChecksum(Path file, byte[] contents) throws IOException {
+        Files.write(file, contents);
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        Files.writeString(
+                file.resolveSibling(file.getFileName() + ".sha1"),
+                HexFormat.of().formatHex(sha1.digest(contents))
+        );
+    }
+}
@@ -0,0 +1,493 @@
+package dev.mccue.resolve.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads artifacts into the cache concurrently, ahead of the resolver's own fetch.
+ *
+ * <p>Anything the repository refuses here, like a jar that isn't where it was expected, is
+ * left for the resolver to fetch itself, so a failure only costs the time it took to find out.
+ * Dropped connections, timeouts and server errors are retried with exponential backoff, and
+ * each retry resumes with a {@code Range} request from what was already written. An artifact
+ * that still can't be downloaded is reported as failed, along with every other one, instead
+ * of being handed to the resolver to fail on by itself.
+ *
+ * <p>Each artifact is locked while it downloads, so when several processes share a cache
+ * only one of them downloads it and the rest wait and then find it already there. Nothing
+ * is visible in the cache until it has been completely written.
+ *
+ * <p>Each artifact is checked against a SHA-256 pinned by a lockfile or, failing that, a
+ * checksum file its repository publishes. Every repository publishes {@code .sha1}, so that is
+ * asked for first, unless there is a content store, which can only look artifacts up by the
+ * {@code .sha256} many repositories also publish. The digests are computed as the bytes are
+ * written, so checking takes no second pass over the file, and are kept beside it in the cache
+ * (see {@link Checksums}). An artifact that doesn't match is never moved into the cache.
+ *
+ * <p>Partial downloads are kept in {@code .name.part} beside the target, so a later run can
+ * resume them too.
+ */
+final class ArtifactDownloader {
+    /**
+     * @param sha256 What the artifact is known to hash to, if anything.
+     */
+    record Download(URI uri, Path target, HttpClient client, Optional<String> sha256) {
+        Download(URI uri, Path target, HttpClient client) {
+            this(uri, target, client, Optional.empty());
+        }
+    }
+
+    /**
+     * @param leftForResolver Whether the resolver should try to fetch it itself, as opposed to
+     *                        the download having been given up on.
+     */
+    record Failure(Download download, String reason, boolean leftForResolver) {
+        Failure(Download download, String reason) {
+            this(download, reason, true);
+        }
+    }
+
+    /**
+     * @param retries How many times to try again after the first attempt.
+     * @param requestTimeout How long to wait for a repository to start responding.
+     * @param totalTimeout How long to spend on any one artifact, across every attempt.
+     */
+    record RetryPolicy(int retries, Duration requestTimeout, Duration totalTimeout) {
+        private static final long BASE_BACKOFF_MILLIS = 250;
+        private static final long MAX_BACKOFF_MILLIS = 10_000;
+
+        /*
+         * Doubles with each attempt, and is randomly between half and all of that so
+         * downloads that failed together don't all retry together.
+         */
+        long backoffMillis(int attempt) {
+            var backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 20));
+            return ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+        }
+    }
+
+    /*
+     * A failed attempt worth trying again.
+     */
+    private static final class RetryableException extends IOException {
+        RetryableException(String message) {
+            super(message);
+        }
+    }
+
+    private record Checksum(String algorithm, String digest) {}
+
+    private static final List<String> PUBLISHED_ALGORITHMS = List.of(
+            Checksums.SHA_256,
+            Checksums.SHA_512,
+            Checksums.SHA_1
+    );
+
+    // What is asked for first is what saves a request most often
+    private static final List<String> PROBE_ORDER = List.of(
+            Checksums.SHA_1,
+            Checksums.SHA_256,
+            Checksums.SHA_512
+    );
+    private static final List<String> CONTENT_STORE_PROBE_ORDER = List.of(
+            Checksums.SHA_256,
+            Checksums.SHA_1,
+            Checksums.SHA_512
+    );
+
+    private final DownloadLimits limits;
+    private final CacheLocks locks;
+    private final Optional<ContentStore> contentStore;
+    private final RetryPolicy retryPolicy;
+    private final PrintWriter err;
+
+    /**
+     * @param limits How many downloads may run at once, shared with any other downloader
+     *               running alongside this one.
+     */
+    ArtifactDownloader(
+            DownloadLimits limits,
+            CacheLocks locks,
+            Optional<ContentStore> contentStore,
+            RetryPolicy retryPolicy,
+            PrintWriter err
+    ) {
+        this.limits = limits;
+        this.locks = locks;
+        this.contentStore = contentStore;
+        this.retryPolicy = retryPolicy;
+        this.err = err;
+    }
+
+    List<Failure> downloadAll(Collection<Download> downloads) throws InterruptedException {
+        var pending = downloads.stream()
+                .filter(download -> !Files.exists(download.target()))
+                .toList();
+        if (pending.isEmpty()) {
+            return List.of();
+        }
+
+        var failures = Collections.synchronizedList(new ArrayList<Failure>());
+        var downloaded = new AtomicInteger();
+        var downloadedElsewhere = new AtomicInteger();
+        var deduplicated = new AtomicInteger();
+        var resumed = new AtomicInteger();
+        var bytes = new AtomicLong();
+        var start = System.nanoTime();
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var download : pending) {
+                executor.submit(() -> {
+                    var host = Objects.requireNonNullElse(download.uri().getHost(), "");
+                    var hostPermit = limits.host(host);
+                    // Locked before taking a permit, so waiting on another process doesn't hold up other downloads
+                    try (var ignored = locks.lock(download.target())) {
+                        if (Files.exists(download.target())) {
+                            downloadedElsewhere.incrementAndGet();
+                            return null;
+                        }
+
+                        hostPermit.acquire();
+                        try {
+                            limits.global().acquire();
+                            try {
+                                var failure = download(download, bytes, deduplicated, resumed);
+                                if (failure == null) {
+                                    downloaded.incrementAndGet();
+                                } else {
+                                    failures.add(failure);
+                                }
+                            } finally {
+                                limits.global().release();
+                            }
+                        } finally {
+                            hostPermit.release();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failures.add(new Failure(download, "interrupted"));
+                    } catch (IOException e) {
+                        failures.add(new Failure(download, "could not lock: " + e.getMessage()));
+                    }
+                    return null;
+                });
+            }
+        }
+
+        if (downloaded.get() > 0 || downloadedElsewhere.get() > 0 || !failures.isEmpty()) {
+            var millis = (System.nanoTime() - start) / 1_000_000;
+            var leftForResolver = failures.stream().filter(Failure::leftForResolver).count();
+            var failed = failures.size() - leftForResolver;
+            err.printf(
+                    "Downloaded %d artifacts (%.1f MB) in %d ms%s%s%s%s%s%n",
+                    downloaded.get(),
+                    bytes.get() / (1024.0 * 1024.0),
+                    millis,
+                    deduplicated.get() == 0
+                            ? ""
+                            : ", " + deduplicated.get() + " already in the content store",
+                    downloadedElsewhere.get() == 0
+                            ? ""
+                            : ", " + downloadedElsewhere.get() + " downloaded by another process",
+                    resumed.get() == 0 ? "" : ", " + resumed.get() + " resumed",
+                    failed == 0 ? "" : ", " + failed + " failed",
+                    leftForResolver == 0 ? "" : ", " + leftForResolver + " left for the resolver"
+            );
+            err.flush();
+        }
+
+        var sorted = new ArrayList<>(failures);
+        sorted.sort(Comparator.comparing(failure -> failure.download().uri()));
+        return sorted;
+    }
+
+    private Failure download(Download download, AtomicLong bytes, AtomicInteger deduplicated, AtomicInteger resumed) {
+        var deadline = System.nanoTime() + retryPolicy.totalTimeout().toNanos();
+        var partial = download.target().resolveSibling("." + download.target().getFileName() + ".part");
+        try {
+            var expected = download.sha256().isPresent()
+                    ? new Checksum(Checksums.SHA_256, download.sha256().get())
+                    : published(download, deadline).orElse(null);
+
+            if (expected != null && expected.algorithm().equals(Checksums.SHA_256) && contentStore.isPresent()) {
+                if (contentStore.get().link(expected.digest(), download.target())) {
+                    Checksums.of(download.target(), Optional.of(Checksums.SHA_256), Map.of(Checksums.SHA_256, expected.digest()))
+                            .write(download.target());
+                    deduplicated.incrementAndGet();
+                    return null;
+                }
+            }
+
+            Files.createDirectories(download.target().getParent());
+            var digests = new LinkedHashMap<String, MessageDigest>();
+            for (var algorithm : PUBLISHED_ALGORITHMS) {
+                digests.put(algorithm, digest(algorithm));
+            }
+
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    var status = attempt(download, partial, digests, bytes, resumed);
+                    if (status != 200) {
+                        Files.deleteIfExists(partial);
+                        return new Failure(download, "HTTP " + status);
+                    }
+                    break;
+                } catch (IOException e) {
+                    var reason = e.getMessage() == null ? e.toString() : e.getMessage();
+                    var backoff = retryPolicy.backoffMillis(attempt);
+                    if (attempt >= retryPolicy.retries()) {
+                        return new Failure(download, "gave up after " + (attempt + 1) + " attempts: " + reason, false);
+                    }
+                    if (System.nanoTime() + backoff * 1_000_000 > deadline) {
+                        return new Failure(download, "timed out after " + (attempt + 1) + " attempts: " + reason, false);
+                    }
+                    Thread.sleep(backoff);
+                }
+            }
+
+            var actual = new TreeMap<String, String>();
+            digests.forEach((algorithm, digest) -> actual.put(algorithm, HexFormat.of().formatHex(digest.digest())));
+            if (expected != null && !actual.get(expected.algorithm()).equals(expected.digest())) {
+                Files.deleteIfExists(partial);
+                return new Failure(
+                        download,
+                        "expected " + expected.algorithm() + " " + expected.digest()
+                                + " but was " + actual.get(expected.algorithm()),
+                        false
+                );
+            }
+
+            if (contentStore.isPresent()) {
+                if (contentStore.get().place(partial, actual.get(Checksums.SHA_256), download.target())) {
+                    Files.deleteIfExists(partial);
+                    deduplicated.incrementAndGet();
+                }
+            } else {
+                AtomicFiles.move(partial, download.target());
+            }
+            Checksums.of(download.target(), Optional.ofNullable(expected).map(Checksum::algorithm), actual)
+                    .write(download.target());
+            return null;
+        } catch (IOException e) {
+            return new Failure(download, e.getMessage() == null ? e.toString() : e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Failure(download, "interrupted", false);
+        }
+    }
+
+    /*
+     * Makes one attempt at downloading the artifact into the partial file, continuing from
+     * where it left off if the repository supports ranges. The digests are left holding
+     * everything in the file.
+     *
+     * Returns the status of a response that shouldn't be retried, or 200 once the whole
+     * artifact has been written.
+     */
+    private int attempt(
+            Download download,
+            Path partial,
+            Map<String, MessageDigest> digests,
+            AtomicLong bytes,
+            AtomicInteger resumed
+    ) throws IOException, InterruptedException {
+        var offset = Files.exists(partial) ? Files.size(partial) : 0;
+        var request = HttpRequest.newBuilder(download.uri())
+                .timeout(retryPolicy.requestTimeout())
+                .GET();
+        if (offset > 0) {
+            request.header("Range", "bytes=" + offset + "-");
+        }
+
+        var response = download.client().send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            var status = response.statusCode();
+            boolean append;
+            if (status == 206 && offset > 0 && response.headers()
+                    .firstValue("Content-Range")
+                    .filter(range -> range.startsWith("bytes " + offset + "-"))
+                    .isPresent()) {
+                append = true;
+            } else if (status == 200) {
+                append = false;
+            } else if (status == 416 || status == 206) {
+                // The partial file doesn't line up with what the repository has, so start over
+                Files.deleteIfExists(partial);
+                throw new RetryableException("HTTP " + status + " resuming from byte " + offset);
+            } else if (status == 408 || status == 429 || status >= 500) {
+                throw new RetryableException("HTTP " + status);
+            } else {
+                return status;
+            }
+
+            digests.values().forEach(MessageDigest::reset);
+            if (append) {
+                resumed.incrementAndGet();
+                InputStream existing = Files.newInputStream(partial);
+                for (var digest : digests.values()) {
+                    existing = new DigestInputStream(existing, digest);
+                }
+                try (var is = existing) {
+                    is.transferTo(OutputStream.nullOutputStream());
+                }
+            }
+
+            OutputStream file = append
+                    ? Files.newOutputStream(partial, StandardOpenOption.APPEND)
+                    : Files.newOutputStream(partial);
+            for (var digest : digests.values()) {
+                file = new DigestOutputStream(file, digest);
+            }
+            // The request timeout only covers waiting for the headers, so a body that stops
+            // arriving is given up on from here once it has gone as long without any. Closing
+            // it doesn't wake up a read already waiting, but interrupting the reader does.
+            var reader = Thread.currentThread();
+            var lastRead = new AtomicLong(System.nanoTime());
+            var stalled = new AtomicBoolean();
+            var watchdog = Thread.ofVirtual().start(() -> {
+                try {
+                    while (true) {
+                        var idle = System.nanoTime() - lastRead.get();
+                        var remaining = retryPolicy.requestTimeout().toNanos() - idle;
+                        if (remaining <= 0) {
+                            stalled.set(true);
+                            reader.interrupt();
+                            return;
+                        }
+                        Thread.sleep(Duration.ofNanos(remaining));
+                    }
+                } catch (InterruptedException e) {
+                    // Finished before stalling
+                }
+            });
+            var finished = false;
+            try (var os = file) {
+                // What is written stays in the partial file even if the connection drops part way
+                var buffer = new byte[64 * 1024];
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    os.write(buffer, 0, read);
+                    bytes.addAndGet(read);
+                    lastRead.set(System.nanoTime());
+                }
+                finished = true;
+            } catch (IOException e) {
+                if (!stalled.get()) {
+                    throw e;
+                }
+            } finally {
+                watchdog.interrupt();
+                joinWatchdog(watchdog, stalled);
+            }
+            if (stalled.get()) {
+                // The interrupt was only meant to stop the read, and may have come just after
+                // the last of the body anyway
+                Thread.interrupted();
+                if (!finished) {
+                    throw new RetryableException("nothing received for " + retryPolicy.requestTimeout());
+                }
+            }
+            return 200;
+        }
+    }
+
+    /*
+     * Waits for the watchdog to finish. Once it has interrupted this thread, the interrupt is
+     * still pending here and would make joining it fail as though the download had been
+     * cancelled, so that one is cleared and the wait carried on.
+     */
+    private static void joinWatchdog(Thread watchdog, AtomicBoolean stalled) throws InterruptedException {
+        while (true) {
+            try {
+                watchdog.join();
+                return;
+            } catch (InterruptedException e) {
+                if (!stalled.get()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /*
+     * The first checksum the repository publishes for the artifact. Checksum files hold the
+     * digest, sometimes followed by the file name.
+     */
+    private Optional<Checksum> published(Download download, long deadline) throws IOException, InterruptedException {
+        for (var algorithm : contentStore.isPresent() ? CONTENT_STORE_PROBE_ORDER : PROBE_ORDER) {
+            var extension = "." + algorithm.toLowerCase(Locale.US).replace("-", "");
+            var body = probe(download, URI.create(download.uri() + extension), deadline).orElse(null);
+            if (body == null) {
+                continue;
+            }
+
+            var contents = body.strip().split("\\s+", 2)[0].toLowerCase(Locale.US);
+            if (contents.length() == digest(algorithm).getDigestLength() * 2
+                    && contents.chars().allMatch(HexFormat::isHexDigit)) {
+                return Optional.of(new Checksum(algorithm, contents));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /*
+     * The contents of a checksum file, or empty if the repository doesn't have it. Failures
+     * worth retrying are retried like downloads, within the same deadline.
+     */
+    private Optional<String> probe(Download download, URI uri, long deadline) throws IOException, InterruptedException {
+        var request = HttpRequest.newBuilder(uri)
+                .timeout(retryPolicy.requestTimeout())
+                .GET()
+                .build();
+        for (int attempt = 0; ; attempt++) {
+            IOException failure;
+            try {
+                var response = download.client().send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+                var status = response.statusCode();
+                if (status == 200) {
+                    return Optional.of(response.body());
+                } else if (status != 408 && status != 429 && status < 500) {
+                    return Optional.empty();
+                }
+                failure = new RetryableException("HTTP " + status + " for " + uri);
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            var backoff = retryPolicy.backoffMillis(attempt);
+            if (attempt >= retryPolicy.retries() || System.nanoTime() + backoff * 1_000_000 > deadline) {
+                throw failure;
+            }
+            Thread.sleep(backoff);
+        }
+    }
+
+    private static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
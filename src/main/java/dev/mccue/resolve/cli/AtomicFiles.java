@@ -0,0 +1,52 @@
+package dev.mccue.resolve.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+final class AtomicFiles {
+    private AtomicFiles() {}
+
+    /*
+     * Writes to a sibling temp file and renames it over the target, so readers
+     * only ever observe the old contents or the complete new contents.
+     */
+    static void writeString(Path path, String contents) throws IOException {
+        var parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        var temp = Files.createTempFile(parent, "." + path.getFileName(), ".tmp");
+        try {
+            Files.writeString(temp, contents);
+            move(temp, path);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /*
+     * Like writeString, for contents read from a stream. Nothing is left behind if reading
+     * it fails part way.
+     */
+    static void copy(InputStream contents, Path path) throws IOException {
+        var parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        var temp = Files.createTempFile(parent, "." + path.getFileName(), ".tmp");
+        try {
+            Files.copy(contents, temp, StandardCopyOption.REPLACE_EXISTING);
+            move(temp, path);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package dev.mccue.resolve.cli;
+
+import dev.mccue.json.Json;
+import dev.mccue.json.JsonDecoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * One resolution in a batch manifest. Each field corresponds to the command line option
+ * of the same name.
+ */
+record BatchRequest(
+        Optional<String> directory,
+        List<String> dependencies,
+        List<String> dependencyFiles,
+        Optional<String> outputFile,
+        Optional<String> outputDirectory,
+        Optional<String> resolutionFile
+) {
+    static BatchRequest fromJson(Json json) {
+        return new BatchRequest(
+                JsonDecoder.optionalField(json, "directory", JsonDecoder::string),
+                JsonDecoder.optionalField(json, "dependencies", JsonDecoder.array(JsonDecoder.string()), List.of()),
+                JsonDecoder.optionalField(json, "dependencyFiles", JsonDecoder.array(JsonDecoder.string()), List.of()),
+                JsonDecoder.optionalField(json, "outputFile", JsonDecoder::string),
+                JsonDecoder.optionalField(json, "outputDirectory", JsonDecoder::string),
+                JsonDecoder.optionalField(json, "resolutionFile", JsonDecoder::string)
+        );
+    }
+
+    List<String> toArgs() {
+        var args = new ArrayList<String>();
+        dependencyFiles.forEach(file -> {
+            args.add("--dependency-file");
+            args.add(file);
+        });
+        outputFile.ifPresent(file -> {
+            args.add("--output-file");
+            args.add(file);
+        });
+        outputDirectory.ifPresent(directory -> {
+            args.add("--output-directory");
+            args.add(directory);
+        });
+        resolutionFile.ifPresent(file -> {
+            args.add("--resolution-file");
+            args.add(file);
+        });
+        if (!dependencies.isEmpty()) {
+            args.add("--");
+            args.addAll(dependencies);
+        }
+        return args;
+    }
+
+    String describe(int index) {
+        return outputFile.map(file -> "request " + index + " (" + file + ")")
+                .orElse("request " + index);
+    }
+}
@@ -0,0 +1,544 @@
+package dev.mccue.resolve.cli;
+
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * {@code jresolve cache gc}, {@code stats}, {@code prefetch}, {@code export} and {@code import}.
+ *
+ * <p>Runs record which artifacts they use through {@link CacheUsage}, and gc evicts whole
+ * artifact directories starting from the one that has gone unused the longest.
+ *
+ * <p>Export and import move a cache between machines as one {@link CacheSnapshot}, such as
+ * when baking it into a CI image.
+ */
+@CommandLine.Command(
+        name = "cache",
+        description = "Inspects, fills and cleans up the cache."
+)
+final class CacheCommand {
+    @CommandLine.ParentCommand
+    CliMain parent;
+
+    /*
+     * An artifact directory in the cache along with everything in it.
+     */
+    private record Entry(Path directory, String key, List<String> files, long size, long lastAccess) {}
+
+    private record Scan(List<Entry> entries, List<Path> temporaryFiles) {}
+
+    @CommandLine.Command(
+            name = "gc",
+            description = "Evicts the least recently used artifacts until the cache fits in the maximum size."
+    )
+    int gc(
+            @CommandLine.Option(
+                    names = "--max-size",
+                    description = "Size to shrink the cache to, such as 500MB or 10GB",
+                    defaultValue = "${env:JRESOLVE_CACHE_MAX_SIZE:-10GB}"
+            )
+            String maxSize,
+            @CommandLine.Option(
+                    names = "--min-age",
+                    description = "ISO-8601 duration an artifact must have gone unused before it can be evicted",
+                    defaultValue = "PT1H"
+            )
+            String minAge,
+            @CommandLine.Option(
+                    names = "--dry-run",
+                    description = "Only report what would be evicted"
+            )
+            boolean dryRun
+    ) throws IOException, InterruptedException {
+        var err = parent.err();
+        var layout = parent.cacheLayout();
+        long limit;
+        try {
+            limit = parseSize(maxSize);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.flush();
+            return 1;
+        }
+        var cutoff = System.currentTimeMillis() - Duration.parse(minAge).toMillis();
+
+        // Only one gc at a time, from any process
+        try (var ignored = new CacheLocks(layout).lock("gc")) {
+            return collect(layout, limit, cutoff, minAge, dryRun);
+        }
+    }
+
+    private int collect(CacheLayout layout, long limit, long cutoff, String minAge, boolean dryRun)
+            throws IOException, InterruptedException {
+        var out = parent.out();
+
+        // Left behind by a gc that was interrupted part way through evicting something
+        deleteRecursively(trash(layout));
+
+        var log = CacheUsage.read(layout);
+        var scan = scan(layout, log);
+        var entries = scan.entries();
+        var total = entries.stream().mapToLong(Entry::size).sum();
+
+        // Partial downloads whose process never got to rename or remove them
+        var abandoned = 0;
+        for (var temporaryFile : scan.temporaryFiles()) {
+            if (Files.getLastModifiedTime(temporaryFile).toMillis() < cutoff) {
+                if (!dryRun) {
+                    Files.deleteIfExists(temporaryFile);
+                }
+                abandoned++;
+            }
+        }
+
+        // Anything used or downloaded after the cutoff might belong to a run still in progress
+        var candidates = new ArrayList<>(entries);
+        candidates.removeIf(entry -> entry.lastAccess() >= cutoff);
+        candidates.sort(Comparator.comparingLong(Entry::lastAccess));
+
+        var evicted = new ArrayList<Entry>();
+        var remaining = total;
+        for (var entry : candidates) {
+            if (remaining <= limit) {
+                break;
+            }
+            if (!dryRun) {
+                evict(layout, entry);
+            }
+            evicted.add(entry);
+            remaining -= entry.size();
+        }
+
+        var unreferenced = collectContentStore(layout, cutoff, dryRun);
+
+        if (!dryRun && !evicted.isEmpty()) {
+            var evictedAt = new HashMap<String, Long>();
+            for (var entry : evicted) {
+                evictedAt.put(entry.key(), entry.lastAccess());
+            }
+            CacheUsage.compact(layout, evictedAt);
+
+            var keys = new HashSet<String>();
+            for (var entry : entries) {
+                if (!evictedAt.containsKey(entry.key())) {
+                    for (var file : entry.files()) {
+                        keys.add(entry.key() + "/" + file);
+                    }
+                }
+            }
+            var cacheIndex = parent.session().cacheIndex(layout);
+            cacheIndex.replace(keys);
+            cacheIndex.save();
+        }
+
+        out.printf(
+                "%s %d artifacts (%s), cache is %s of %s%n",
+                dryRun ? "Would evict" : "Evicted",
+                evicted.size(),
+                formatSize(total - remaining),
+                formatSize(remaining),
+                formatSize(limit)
+        );
+        if (remaining > limit) {
+            out.println("Everything else was used within the last " + minAge);
+        }
+        if (abandoned > 0) {
+            out.println((dryRun ? "Would remove " : "Removed ") + abandoned + " abandoned partial downloads");
+        }
+        if (unreferenced > 0) {
+            out.println((dryRun ? "Would remove " : "Removed ") + unreferenced
+                    + " files from the content store that nothing links to");
+        }
+        out.flush();
+        return 0;
+    }
+
+    @CommandLine.Command(
+            name = "stats",
+            description = "Reports the size of the cache and how often it is hit."
+    )
+    int stats() throws IOException {
+        var out = parent.out();
+        var layout = parent.cacheLayout();
+        var log = CacheUsage.read(layout);
+        var entries = scan(layout, log).entries();
+
+        out.println("Cache: " + layout.root());
+        out.println("Size: " + formatSize(entries.stream().mapToLong(Entry::size).sum()));
+        out.println("Entries: " + entries.size() + " artifacts, "
+                + entries.stream().mapToInt(entry -> entry.files().size()).sum() + " files");
+        var lookups = log.hits() + log.misses();
+        out.println(lookups == 0
+                ? "Hit rate: no lookups recorded"
+                : String.format(
+                        "Hit rate: %.1f%% (%d hits, %d misses)",
+                        100.0 * log.hits() / lookups,
+                        log.hits(),
+                        log.misses()
+                ));
+        entries.stream()
+                .mapToLong(Entry::lastAccess)
+                .min()
+                .ifPresent(oldest -> out.println("Least recently used: "
+                        + Duration.ofMillis(System.currentTimeMillis() - oldest).toDays() + " days ago"));
+        out.flush();
+        return 0;
+    }
+
+    @CommandLine.Command(
+            name = "prefetch",
+            description = "Downloads everything the given dependency files and jproject.tomls need into the cache."
+    )
+    int prefetch(
+            @CommandLine.Parameters(
+                    paramLabel = "manifests",
+                    description = "Dependency files, or jproject.toml files to fetch every dependency set of",
+                    arity = "1..*"
+            )
+            List<File> manifests,
+            @CommandLine.Option(
+                    names = "--parallelism",
+                    description = "Maximum number of manifests to resolve at once",
+                    defaultValue = "4"
+            )
+            int parallelism
+    ) throws Exception {
+        var out = parent.out();
+        var start = System.nanoTime();
+        var failures = parent.prefetch(
+                manifests.stream().map(parent::path).toList(),
+                parallelism,
+                parent.cacheLayout().root(),
+                parent.readOnlyCaches()
+        );
+        out.printf(
+                "Prefetched %d of %d manifests in %d ms%n",
+                manifests.size() - failures,
+                manifests.size(),
+                (System.nanoTime() - start) / 1_000_000
+        );
+        out.flush();
+        return failures == 0 ? 0 : 1;
+    }
+
+    @CommandLine.Command(
+            name = "export",
+            description = "Writes the cache, or only what the given manifests need, to a single snapshot archive."
+    )
+    int export(
+            @CommandLine.Parameters(
+                    paramLabel = "archive",
+                    description = "File to write the snapshot to"
+            )
+            File archive,
+            @CommandLine.Option(
+                    names = "--manifest",
+                    description = "Only export what this dependency file or jproject.toml needs. Can be given more than once."
+            )
+            List<File> manifests,
+            @CommandLine.Option(
+                    names = "--parallelism",
+                    description = "Maximum number of manifests to resolve at once",
+                    defaultValue = "4"
+            )
+            int parallelism
+    ) throws Exception {
+        var out = parent.out();
+        var layout = parent.cacheLayout();
+        var archivePath = parent.path(archive);
+        if (archivePath.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(archivePath.toAbsolutePath().getParent());
+        }
+
+        if (manifests == null || manifests.isEmpty()) {
+            return export(archivePath, layout);
+        }
+
+        // Resolved into an empty cache in front of this one, which ends up holding exactly
+        // what the manifests need. It is kept beside the cache so jars can be linked, not copied.
+        var root = layout.root().toAbsolutePath().normalize();
+        Files.createDirectories(root.getParent());
+        var scratch = Files.createTempDirectory(root.getParent(), "export-");
+        try {
+            var layers = new ArrayList<Path>();
+            layers.add(root);
+            layers.addAll(parent.readOnlyCaches());
+            var failures = parent.prefetch(
+                    manifests.stream().map(parent::path).toList(),
+                    parallelism,
+                    scratch,
+                    layers
+            );
+            if (failures > 0) {
+                out.println("Not exporting, since " + failures + " of " + manifests.size() + " manifests failed");
+                out.flush();
+                return 1;
+            }
+            return export(archivePath, new CacheLayout(scratch));
+        } finally {
+            deleteRecursively(scratch);
+        }
+    }
+
+    private int export(Path archive, CacheLayout layout) throws IOException {
+        var out = parent.out();
+        var root = layout.root().toAbsolutePath().normalize();
+        var files = new ArrayList<Path>();
+        for (var entry : scan(layout, CacheUsage.read(layout)).entries()) {
+            for (var file : entry.files()) {
+                // Sidecars are only valid for the exact file they sit beside
+                if (!file.startsWith(".")) {
+                    files.add(root.relativize(entry.directory().resolve(file)));
+                }
+            }
+        }
+        var size = CacheSnapshot.write(archive, layout, files);
+        out.println("Exported " + files.size() + " files (" + formatSize(size) + ") to " + archive);
+        out.flush();
+        return 0;
+    }
+
+    @CommandLine.Command(
+            name = "import",
+            description = "Adds the files in a snapshot archive to the cache, verifying their checksums."
+    )
+    int importSnapshot(
+            @CommandLine.Parameters(
+                    paramLabel = "archive",
+                    description = "Snapshot written by cache export"
+            )
+            File archive
+    ) throws IOException, InterruptedException {
+        var out = parent.out();
+        var err = parent.err();
+        var layout = parent.cacheLayout();
+        var cacheIndex = parent.session().cacheIndex(layout);
+        var imported = CacheSnapshot.read(
+                parent.path(archive),
+                layout,
+                parent.contentAddressedCache ? Optional.of(new ContentStore(layout)) : Optional.empty(),
+                cacheIndex
+        );
+        cacheIndex.save();
+
+        out.println("Imported " + imported.files() + " files (" + formatSize(imported.bytes()) + "), "
+                + imported.alreadyCached() + " already cached");
+        out.flush();
+        if (!imported.failures().isEmpty()) {
+            err.println("Could not import:");
+            for (var failure : imported.failures()) {
+                err.println("  " + failure);
+            }
+            err.flush();
+            return 1;
+        }
+        return 0;
+    }
+
+    /*
+     * Every directory holding files below the scheme and host, which for a maven repository
+     * is one version of one artifact. Files at the root of the cache are its own bookkeeping.
+     *
+     * An artifact never recorded in the access log was last used no earlier than it was
+     * downloaded, which covers poms the resolver reads without this CLI seeing them.
+     *
+     * Files being written are kept apart, since they are not part of any artifact yet.
+     */
+    private static Scan scan(CacheLayout layout, CacheUsage.Log log) throws IOException {
+        var root = layout.root().toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            return new Scan(List.of(), List.of());
+        }
+        var skipped = Set.of(root.resolve(".trash"), root.resolve(".locks"), ContentStore.root(layout));
+        var temporaryFiles = new ArrayList<Path>();
+
+        record FileInfo(String name, long size, long lastModified) {}
+        var directories = new TreeMap<Path, List<FileInfo>>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return skipped.contains(dir)
+                        ? FileVisitResult.SKIP_SUBTREE
+                        : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                var name = file.getFileName().toString();
+                if (attrs.isRegularFile() && name.startsWith(".") && (name.endsWith(".part") || name.endsWith(".tmp"))) {
+                    temporaryFiles.add(file);
+                } else if (attrs.isRegularFile() && !file.getParent().equals(root)) {
+                    directories.computeIfAbsent(file.getParent(), k -> new ArrayList<>()).add(new FileInfo(
+                            file.getFileName().toString(),
+                            attrs.size(),
+                            attrs.lastModifiedTime().toMillis()
+                    ));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                // Deleted out from under the walk by a concurrent gc or an atomic rename
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        var entries = new ArrayList<Entry>();
+        directories.forEach((directory, files) -> {
+            var key = CacheUsage.key(root.relativize(directory));
+            var downloaded = files.stream().mapToLong(FileInfo::lastModified).max().orElse(0);
+            entries.add(new Entry(
+                    directory,
+                    key,
+                    files.stream().map(FileInfo::name).toList(),
+                    files.stream().mapToLong(FileInfo::size).sum(),
+                    Math.max(downloaded, log.lastAccess().getOrDefault(key, 0L))
+            ));
+        });
+        return new Scan(entries, temporaryFiles);
+    }
+
+    /*
+     * A file in the content store with no other links is no longer used anywhere in the
+     * cache. Files evicted in this same run only become unlinked once they are deleted, so
+     * a dry run undercounts.
+     */
+    private static int collectContentStore(CacheLayout layout, long cutoff, boolean dryRun) throws IOException {
+        var store = ContentStore.root(layout);
+        if (!Files.isDirectory(store)) {
+            return 0;
+        }
+
+        var unreferenced = 0;
+        try (var files = Files.walk(store)) {
+            for (var file : files.filter(Files::isRegularFile).toList()) {
+                int links;
+                long lastModified;
+                try {
+                    links = (Integer) Files.getAttribute(file, "unix:nlink");
+                    lastModified = Files.getLastModifiedTime(file).toMillis();
+                } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                    // Without link counts there is no telling what is still used
+                    return unreferenced;
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (links <= 1 && lastModified < cutoff) {
+                    if (!dryRun) {
+                        Files.deleteIfExists(file);
+                    }
+                    unreferenced++;
+                }
+            }
+        }
+        return unreferenced;
+    }
+
+    private static Path trash(CacheLayout layout) {
+        return layout.root().resolve(".trash");
+    }
+
+    /*
+     * The directory is first renamed out of the cache in one step, so a concurrent run sees
+     * either the whole artifact or none of it and downloads it again. Files already open
+     * stay readable until closed.
+     */
+    private static void evict(CacheLayout layout, Entry entry) throws IOException {
+        var hasSubdirectories = false;
+        try (var children = Files.list(entry.directory())) {
+            hasSubdirectories = children.anyMatch(Files::isDirectory);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+
+        if (!hasSubdirectories) {
+            var trash = trash(layout);
+            Files.createDirectories(trash);
+            var target = trash.resolve(UUID.randomUUID().toString());
+            try {
+                Files.move(entry.directory(), target, StandardCopyOption.ATOMIC_MOVE);
+                for (var file : entry.files()) {
+                    Files.deleteIfExists(target.resolve(file));
+                }
+                try (var leftovers = Files.list(target)) {
+                    for (var leftover : leftovers.toList()) {
+                        Files.deleteIfExists(leftover);
+                    }
+                }
+                Files.delete(target);
+                return;
+            } catch (AtomicMoveNotSupportedException | NoSuchFileException e) {
+                // Fall back to removing the files one by one
+            }
+        }
+
+        for (var file : entry.files()) {
+            Files.deleteIfExists(entry.directory().resolve(file));
+        }
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    static long parseSize(String size) {
+        var normalized = size.trim().toUpperCase(Locale.US);
+        if (normalized.endsWith("B")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        long multiplier = 1;
+        if (!normalized.isEmpty()) {
+            switch (normalized.charAt(normalized.length() - 1)) {
+                case 'K' -> multiplier = 1024L;
+                case 'M' -> multiplier = 1024L * 1024;
+                case 'G' -> multiplier = 1024L * 1024 * 1024;
+                case 'T' -> multiplier = 1024L * 1024 * 1024 * 1024;
+                default -> multiplier = 1;
+            }
+            if (multiplier != 1) {
+                normalized = normalized.substring(0, normalized.length() - 1);
+            }
+        }
+        try {
+            return (long) (Double.parseDouble(normalized.trim()) * multiplier);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+    }
+
+    static String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        var units = List.of("KB", "MB", "GB", "TB");
+        double value = bytes;
+        var unit = -1;
+        while (value >= 1024 && unit < units.size() - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format(Locale.US, "%.1f %s", value, units.get(unit));
+    }
+}
@@ -0,0 +1,107 @@
+package dev.mccue.resolve.cli;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * An on-disk list of what is known to be in the cache.
+ *
+ * <p>Checking whether an artifact is cached otherwise means a {@code stat} deep in the
+ * cache tree for every pom and jar of every dependency. Entries are keyed the same way
+ * the cache itself is, one per line, and are only ever added: a file that is not listed
+ * is checked on disk and remembered if it is there.
+ *
+ * <p>A listed file that has since been deleted is only a missed prefetch. The resolver
+ * still checks for the file itself before using it and fetches it again.
+ */
+final class CacheIndex {
+    private final Path file;
+    private final CacheLayout layout;
+    private final Set<String> keys;
+    private volatile boolean changed = false;
+    private volatile boolean replaced = false;
+
+    private CacheIndex(Path file, CacheLayout layout, Set<String> keys) {
+        this.file = file;
+        this.layout = layout;
+        this.keys = keys;
+    }
+
+    static CacheIndex load(CacheLayout layout) throws IOException {
+        var file = layout.root().resolve("cache-index.txt");
+        Set<String> keys = ConcurrentHashMap.newKeySet();
+        keys.addAll(read(file));
+        return new CacheIndex(file, layout, keys);
+    }
+
+    private static List<String> read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return List.of();
+        }
+        return Files.readAllLines(file)
+                .stream()
+                .filter(line -> !line.isBlank())
+                .toList();
+    }
+
+    private static String key(URI uri) {
+        return String.join("/", CacheLayout.keyComponents(uri));
+    }
+
+    boolean contains(URI uri) {
+        var key = key(uri);
+        if (keys.contains(key)) {
+            return true;
+        }
+        if (Files.exists(layout.pathOf(uri))) {
+            keys.add(key);
+            changed = true;
+            return true;
+        }
+        return false;
+    }
+
+    void add(URI uri) {
+        if (keys.add(key(uri))) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Replaces everything listed with exactly the given keys, for when the
+     * whole cache has just been walked anyway.
+     */
+    synchronized void replace(Collection<String> keys) {
+        this.keys.retainAll(keys);
+        this.keys.addAll(keys);
+        changed = true;
+        replaced = true;
+    }
+
+    /*
+     * Other processes sharing the cache save their own additions, so unless this index was
+     * just replaced wholesale it is merged with whatever is on disk rather than overwriting it.
+     */
+    synchronized void save() throws IOException, InterruptedException {
+        if (!changed) {
+            return;
+        }
+        try (var ignored = new CacheLocks(layout).lock("cache-index")) {
+            if (!replaced) {
+                keys.addAll(read(file));
+            }
+            AtomicFiles.writeString(file, keys.stream()
+                    .sorted()
+                    .collect(Collectors.joining("\n", "", "\n")));
+        }
+        changed = false;
+        replaced = false;
+    }
+}
@@ -0,0 +1,64 @@
+package dev.mccue.resolve.cli;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Read-only caches consulted, in order, before going to the network.
+ *
+ * <p>Each layer has the same layout as the writable cache, so a pre-populated cache from
+ * another machine or a container image can be mounted as is. Nothing is ever written to a
+ * layer. Jars found in one are linked or copied into the writable cache and poms are served to
+ * the resolver as if they had been downloaded.
+ */
+record CacheLayers(List<CacheLayout> layouts) {
+    CacheLayers {
+        layouts = List.copyOf(layouts);
+    }
+
+    static CacheLayers of(List<Path> roots) {
+        return new CacheLayers(roots.stream()
+                .map(root -> new CacheLayout(root.toAbsolutePath().normalize()))
+                .toList());
+    }
+
+    boolean isEmpty() {
+        return layouts.isEmpty();
+    }
+
+    Optional<Path> find(URI uri) {
+        for (var layout : layouts) {
+            var path = layout.pathOf(uri);
+            if (Files.isRegularFile(path)) {
+                return Optional.of(path);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Puts a file from a layer into the writable cache. A hard link is used when both are on
+     * the same file system, otherwise a copy. A symbolic link would break whenever the layer
+     * is unmounted or changed, leaving the writable cache with entries it can't read.
+     */
+    static void link(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        var temp = target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".part");
+        try {
+            try {
+                Files.createLink(temp, source);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            AtomicFiles.move(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
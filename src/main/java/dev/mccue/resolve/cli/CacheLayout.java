@@ -0,0 +1,64 @@
+package dev.mccue.resolve.cli;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.StringJoiner;
+
+/**
+ * Where things live in the cache directory.
+ *
+ * <p>A file fetched from https://host/a/b.jar is stored under {@code <root>/https/host/a/b.jar}.
+ */
+record CacheLayout(Path root) {
+    /**
+     * @param cachePath The root of the cache, or null for the standard location.
+     */
+    static CacheLayout of(Path cachePath) {
+        return new CacheLayout(cachePath == null
+                ? Path.of(System.getProperty("user.home"), ".jresolve", "cache")
+                : cachePath);
+    }
+
+    static List<String> keyComponents(URI uri) {
+        var url = uri.toString();
+        if (url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+
+        return Arrays.asList(url.split("((:)*/)+"));
+    }
+
+    Path pathOf(URI uri) {
+        return pathOf(keyComponents(uri));
+    }
+
+    Path pathOf(List<String> keyComponents) {
+        var path = root;
+        for (var component : keyComponents) {
+            path = path.resolve(component);
+        }
+        return path;
+    }
+
+    Optional<URI> uriOf(Path file) {
+        var normalizedRoot = root.toAbsolutePath().normalize();
+        var normalized = file.toAbsolutePath().normalize();
+        if (!normalized.startsWith(normalizedRoot)
+                || normalizedRoot.relativize(normalized).getNameCount() < 2) {
+            return Optional.empty();
+        }
+        var relative = normalizedRoot.relativize(normalized);
+        var rest = new StringJoiner("/");
+        for (int i = 1; i < relative.getNameCount(); i++) {
+            rest.add(relative.getName(i).toString());
+        }
+        try {
+            return Optional.of(URI.create(relative.getName(0) + "://" + rest));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+}
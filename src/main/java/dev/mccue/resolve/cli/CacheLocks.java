@@ -0,0 +1,78 @@
+package dev.mccue.resolve.cli;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Locks shared by every process using the same cache directory.
+ *
+ * <p>Each lock is an OS file lock, so it is released when the process holding it exits,
+ * crashed or not. Locks for files in the cache are spread over a fixed number of lock
+ * files under {@code .locks} at the cache root, which are never deleted. Deleting a lock
+ * file that another process is about to lock would let both of them hold it. Two files
+ * that share a lock only means one sometimes waits for the other.
+ *
+ * <p>A JVM can only hold one lock on a file at a time, so threads in this process take
+ * turns on each lock file before locking it.
+ */
+final class CacheLocks {
+    interface Lock extends AutoCloseable {
+        @Override
+        void close() throws IOException;
+    }
+
+    private static final int STRIPES = 256;
+    private static final Map<Path, Semaphore> IN_PROCESS = new ConcurrentHashMap<>();
+
+    private final Path directory;
+
+    CacheLocks(CacheLayout layout) {
+        this.directory = layout.root().toAbsolutePath().normalize().resolve(".locks");
+    }
+
+    /**
+     * Locks a file in the cache, blocking until any other thread or process holding it is done.
+     */
+    Lock lock(Path file) throws IOException, InterruptedException {
+        var stripe = Math.floorMod(file.toAbsolutePath().normalize().toString().hashCode(), STRIPES);
+        return acquire(directory.resolve(stripe + ".lock"));
+    }
+
+    /**
+     * Locks something about the cache as a whole, like its index.
+     */
+    Lock lock(String name) throws IOException, InterruptedException {
+        return acquire(directory.resolve(name + ".lock"));
+    }
+
+    private static Lock acquire(Path lockFile) throws IOException, InterruptedException {
+        var turn = IN_PROCESS.computeIfAbsent(lockFile, k -> new Semaphore(1));
+        turn.acquire();
+        try {
+            Files.createDirectories(lockFile.getParent());
+            var channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                var fileLock = channel.lock();
+                return () -> {
+                    try (channel) {
+                        fileLock.release();
+                    } finally {
+                        turn.release();
+                    }
+                };
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            turn.release();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package dev.mccue.resolve.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A copy of the files in a cache as one zip, written by {@code cache export} and read by
+ * {@code cache import}.
+ *
+ * <p>The first entry, {@code SHA256SUMS}, lists the SHA-256 of every file in the same format
+ * as {@code sha256sum}, so the rest can be checked as they are read in one pass. Jars are
+ * stored as they are since they are compressed already, and everything else is deflated.
+ * The cache's own bookkeeping, like locks and checksum sidecars, is left out and rebuilt
+ * on import.
+ */
+final class CacheSnapshot {
+    static final String SUMS = "SHA256SUMS";
+
+    record Imported(int files, long bytes, int alreadyCached, List<String> failures) {}
+
+    private CacheSnapshot() {}
+
+    /**
+     * @param files Paths of the files to include, relative to the root of the cache.
+     * @return The total size of the files.
+     */
+    static long write(Path archive, CacheLayout layout, Collection<Path> files) throws IOException {
+        var root = layout.root().toAbsolutePath().normalize();
+
+        record Info(String name, Path file, String sha256, long crc, long size) {}
+        var infos = new ArrayList<Info>();
+        for (var file : new TreeSet<>(files)) {
+            var path = root.resolve(file);
+            var crc = new CRC32();
+            var digest = Digests.sha256();
+            var buffer = new byte[8192];
+            long size = 0;
+            try (var is = Files.newInputStream(path)) {
+                int read;
+                while ((read = is.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                    digest.update(buffer, 0, read);
+                    size += read;
+                }
+            }
+            infos.add(new Info(
+                    name(file),
+                    path,
+                    HexFormat.of().formatHex(digest.digest()),
+                    crc.getValue(),
+                    size
+            ));
+        }
+
+        var temp = archive.resolveSibling("." + archive.getFileName() + ".tmp");
+        try (var zip = new ZipOutputStream(Files.newOutputStream(temp))) {
+            var sums = new StringBuilder();
+            for (var info : infos) {
+                sums.append(info.sha256()).append("  ").append(info.name()).append('\n');
+            }
+            zip.putNextEntry(new ZipEntry(SUMS));
+            zip.write(sums.toString().getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+
+            for (var info : infos) {
+                var entry = new ZipEntry(info.name());
+                entry.setLastModifiedTime(Files.getLastModifiedTime(info.file()));
+                if (isCompressed(info.name())) {
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(info.size());
+                    entry.setCompressedSize(info.size());
+                    entry.setCrc(info.crc());
+                }
+                zip.putNextEntry(entry);
+                Files.copy(info.file(), zip);
+                zip.closeEntry();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        AtomicFiles.move(temp, archive);
+        return infos.stream().mapToLong(Info::size).sum();
+    }
+
+    /**
+     * Copies every file in the snapshot into the cache that isn't there already, checking each
+     * against its SHA-256 first. Files that don't match are left out and reported.
+     */
+    static Imported read(
+            Path archive,
+            CacheLayout layout,
+            Optional<ContentStore> contentStore,
+            CacheIndex cacheIndex
+    ) throws IOException, InterruptedException {
+        var root = layout.root().toAbsolutePath().normalize();
+        var locks = new CacheLocks(layout);
+        var failures = new ArrayList<String>();
+        var files = 0;
+        var bytes = 0L;
+        var alreadyCached = 0;
+
+        try (var zip = new ZipInputStream(Files.newInputStream(archive))) {
+            var first = zip.getNextEntry();
+            if (first == null || !first.getName().equals(SUMS)) {
+                throw new IOException(archive + " is not a cache snapshot: it does not start with " + SUMS);
+            }
+            var expected = sums(zip);
+            var seen = new HashSet<String>();
+
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                var name = entry.getName();
+                var sha256 = expected.get(name);
+                if (sha256 == null) {
+                    failures.add(name + ": not listed in " + SUMS);
+                    continue;
+                }
+                seen.add(name);
+                var target = target(root, name).orElse(null);
+                if (target == null) {
+                    failures.add(name + ": not a path in the cache");
+                    continue;
+                }
+
+                try (var ignored = locks.lock(target)) {
+                    if (Files.isRegularFile(target) && Checksums.sha256(target, layout).equals(sha256)) {
+                        alreadyCached++;
+                        continue;
+                    }
+
+                    Files.createDirectories(target.getParent());
+                    var temp = target.resolveSibling("." + target.getFileName() + ".tmp");
+                    var digest = Digests.sha256();
+                    long size;
+                    try (var os = Files.newOutputStream(temp)) {
+                        size = copy(zip, os, digest);
+                    }
+                    var actual = HexFormat.of().formatHex(digest.digest());
+                    if (!actual.equals(sha256)) {
+                        Files.deleteIfExists(temp);
+                        failures.add(name + ": expected SHA-256 " + sha256 + " but was " + actual);
+                        continue;
+                    }
+                    if (entry.getLastModifiedTime() != null) {
+                        Files.setLastModifiedTime(temp, entry.getLastModifiedTime());
+                    }
+
+                    if (contentStore.isPresent()) {
+                        if (contentStore.get().place(temp, sha256, target)) {
+                            Files.deleteIfExists(temp);
+                        }
+                    } else {
+                        AtomicFiles.move(temp, target);
+                    }
+                    Checksums.of(target, Optional.empty(), Map.of(Checksums.SHA_256, sha256)).write(target);
+                    layout.uriOf(target).ifPresent(cacheIndex::add);
+                    files++;
+                    bytes += size;
+                }
+            }
+
+            for (var name : expected.keySet()) {
+                if (!seen.contains(name)) {
+                    failures.add(name + ": missing from the snapshot");
+                }
+            }
+        }
+
+        return new Imported(files, bytes, alreadyCached, failures);
+    }
+
+    private static Map<String, String> sums(ZipInputStream zip) throws IOException {
+        var sums = new LinkedHashMap<String, String>();
+        // Not closed, since that would close the zip along with it
+        var reader = new BufferedReader(new InputStreamReader(zip, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            var parts = line.split(" {2}", 2);
+            if (parts.length != 2) {
+                throw new IOException("Malformed line in " + SUMS + ": " + line);
+            }
+            sums.put(parts[1], parts[0]);
+        }
+        return sums;
+    }
+
+    /*
+     * Where an entry goes in the cache, as long as that is somewhere a download could have put
+     * it. Anything else could overwrite bookkeeping or escape the cache altogether.
+     */
+    private static Optional<Path> target(Path root, String name) {
+        var components = name.split("/");
+        if (components.length < 3) {
+            return Optional.empty();
+        }
+        for (var component : components) {
+            if (component.isEmpty() || component.startsWith(".") || component.contains("\\")) {
+                return Optional.empty();
+            }
+        }
+        var target = root.resolve(name).normalize();
+        return target.startsWith(root) ? Optional.of(target) : Optional.empty();
+    }
+
+    private static String name(Path relative) {
+        var name = new StringJoiner("/");
+        for (var component : relative) {
+            name.add(component.toString());
+        }
+        return name.toString();
+    }
+
+    private static boolean isCompressed(String name) {
+        return name.endsWith(".jar") || name.endsWith(".zip") || name.endsWith(".aar")
+                || name.endsWith(".war") || name.endsWith(".gz");
+    }
+
+    private static long copy(ZipInputStream zip, OutputStream os, MessageDigest digest) throws IOException {
+        var buffer = new byte[8192];
+        long size = 0;
+        int read;
+        while ((read = zip.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+            os.write(buffer, 0, read);
+            size += read;
+        }
+        return size;
+    }
+}
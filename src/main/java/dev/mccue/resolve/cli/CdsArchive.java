@@ -0,0 +1,180 @@
+package dev.mccue.resolve.cli;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A dynamic AppCDS archive of the classes a program loads from a resolved class path.
+ *
+ * <p>It is made by launching the program once with {@code -XX:ArchiveClassesAtExit} and is
+ * only valid for the same JVM and exactly the same jars, so a fingerprint of those is kept in
+ * {@code .name.fingerprint} beside it. While that still matches, the archive is left alone.
+ * When the resolution changes, the archive is made again.
+ *
+ * <pre>
+ * java -XX:SharedArchiveFile=app.jsa --class-path "$(cat path.txt)" com.example.Main
+ * </pre>
+ */
+final class CdsArchive {
+    /**
+     * @param archive Where the archive is written.
+     * @param java The java launcher to train with, which must be the one the archive is used with.
+     * @param mainClass The class to launch.
+     * @param trainingArgs Arguments to launch it with.
+     * @param trainingTimeout How long to let it run before stopping it, for programs that don't exit by themselves.
+     */
+    record Options(
+            Path archive,
+            Path java,
+            String mainClass,
+            List<String> trainingArgs,
+            Duration trainingTimeout
+    ) {}
+
+    private CdsArchive() {}
+
+    static Path fingerprintFile(Path archive) {
+        return archive.resolveSibling("." + archive.getFileName() + ".fingerprint");
+    }
+
+    /**
+     * The java launcher of the JVM this is running in, or failing that the one in JAVA_HOME.
+     */
+    static Path defaultJava() {
+        var javaHome = System.getProperty("java.home");
+        if (javaHome == null || javaHome.isBlank()) {
+            javaHome = System.getenv("JAVA_HOME");
+        }
+        if (javaHome == null || javaHome.isBlank()) {
+            return Path.of("java");
+        }
+        var executable = System.getProperty("os.name", "").toLowerCase(Locale.US).contains("win") ? "java.exe" : "java";
+        return Path.of(javaHome, "bin", executable);
+    }
+
+    /**
+     * Makes the archive unless the one already there was made from the same inputs.
+     *
+     * @param sha256s The SHA-256 of each library, in the same order.
+     * @return The exit code for the command.
+     */
+    static int emit(
+            Options options,
+            String classPath,
+            Collection<Path> libraries,
+            List<String> sha256s,
+            PrintWriter err
+    ) throws IOException, InterruptedException {
+        var java = options.java();
+        var inputs = new ArrayList<String>();
+        inputs.add("java:" + java.toAbsolutePath());
+        inputs.add("launcher:" + launcherFingerprint(java));
+        inputs.add("mainClass:" + options.mainClass());
+        inputs.add("args:" + String.join("\u0000", options.trainingArgs()));
+        inputs.add("classPath:" + classPath);
+        var sha256Iterator = sha256s.iterator();
+        for (var library : libraries) {
+            inputs.add("library:" + library.toAbsolutePath() + ":" + sha256Iterator.next());
+        }
+        var fingerprint = Digests.sha256(inputs);
+
+        var archive = options.archive();
+        var fingerprintFile = fingerprintFile(archive);
+        if (Files.isRegularFile(archive)
+                && Files.exists(fingerprintFile)
+                && Files.readString(fingerprintFile).strip().equals(fingerprint)) {
+            return 0;
+        }
+
+        if (archive.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(archive.toAbsolutePath().getParent());
+        }
+        // Removed first, so a training run that fails can't leave a stale archive looking current
+        Files.deleteIfExists(fingerprintFile);
+        var temp = archive.resolveSibling("." + archive.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+
+        var command = new ArrayList<String>();
+        command.add(java.toString());
+        command.add("-XX:ArchiveClassesAtExit=" + temp.toAbsolutePath());
+        command.add("--class-path");
+        command.add(classPath);
+        command.add(options.mainClass());
+        command.addAll(options.trainingArgs());
+
+        err.println("Training CDS archive with " + options.mainClass());
+        err.flush();
+        var process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        // Passed on rather than inherited, since with the daemon this process's stderr isn't the caller's
+        var errors = Thread.ofVirtual().start(() -> {
+            try (var lines = process.errorReader()) {
+                lines.lines().forEach(line -> {
+                    err.println(line);
+                    err.flush();
+                });
+            } catch (IOException | UncheckedIOException e) {
+                // Stopped along with the process
+            }
+        });
+        try {
+            if (!process.waitFor(options.trainingTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                // A normal exit, so the JVM still writes the archive on the way out
+                process.destroy();
+                if (!process.waitFor(1, TimeUnit.MINUTES)) {
+                    process.destroyForcibly();
+                    err.println("Training run did not stop when asked to");
+                    err.flush();
+                    return 1;
+                }
+            }
+        } finally {
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+            errors.join();
+        }
+
+        if (!Files.isRegularFile(temp)) {
+            err.println("Training run exited with " + process.exitValue() + " without writing a CDS archive");
+            err.flush();
+            return 1;
+        }
+        AtomicFiles.move(temp, archive);
+        AtomicFiles.writeString(fingerprintFile, fingerprint + "\n");
+        return 0;
+    }
+
+    /*
+     * What identifies the JVM behind the launcher without starting it: the JDK's release file,
+     * which names the exact runtime version, and the launcher's real path, size and modification
+     * time, which change when it is replaced or a symlink is pointed at another JDK.
+     */
+    private static String launcherFingerprint(Path java) throws IOException {
+        Path launcher;
+        try {
+            launcher = java.toRealPath();
+        } catch (IOException e) {
+            throw new IOException("Could not find " + java + ": " + e.getMessage(), e);
+        }
+        var attributes = Files.readAttributes(launcher, BasicFileAttributes.class);
+        var fingerprint = launcher + ":" + attributes.size() + ":" + attributes.lastModifiedTime().toMillis();
+        var bin = launcher.getParent();
+        var release = bin == null || bin.getParent() == null ? null : bin.getParent().resolve("release");
+        if (release != null && Files.isRegularFile(release)) {
+            fingerprint += ":" + Digests.sha256(release);
+        }
+        return fingerprint;
+    }
+}
@@ -0,0 +1,116 @@
+package dev.mccue.resolve.cli;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Digests of a file in the cache, kept beside it so they are computed once.
+ *
+ * <p>For {@code a.jar} they are stored in {@code .a.jar.checksums}, along with the size and
+ * modification time the file had when they were computed. If either has changed since, the
+ * stored digests are ignored.
+ *
+ * <pre>
+ * size 52341
+ * lastModified 1718000000000
+ * verified SHA-1
+ * SHA-1 0123...
+ * SHA-256 4567...
+ * </pre>
+ *
+ * <p>{@code verified} names the digest that matched a checksum published by the repository
+ * or pinned by a lockfile, if there was one.
+ */
+record Checksums(long size, long lastModified, Optional<String> verified, Map<String, String> digests) {
+    static final String SHA_1 = "SHA-1";
+    static final String SHA_256 = "SHA-256";
+    static final String SHA_512 = "SHA-512";
+
+    Checksums {
+        digests = Collections.unmodifiableMap(new TreeMap<>(digests));
+    }
+
+    static Path file(Path artifact) {
+        return artifact.resolveSibling("." + artifact.getFileName() + ".checksums");
+    }
+
+    static Checksums of(Path artifact, Optional<String> verified, Map<String, String> digests) throws IOException {
+        return new Checksums(
+                Files.size(artifact),
+                Files.getLastModifiedTime(artifact).toMillis(),
+                verified,
+                digests
+        );
+    }
+
+    /**
+     * The stored checksums of the given file, if there are any and they still describe it.
+     */
+    static Optional<Checksums> read(Path artifact) {
+        try {
+            var lines = Files.readAllLines(file(artifact));
+            long size = -1;
+            long lastModified = -1;
+            String verified = null;
+            var digests = new TreeMap<String, String>();
+            for (var line : lines) {
+                var parts = line.split(" ", 2);
+                if (parts.length != 2) {
+                    continue;
+                }
+                switch (parts[0]) {
+                    case "size" -> size = Long.parseLong(parts[1]);
+                    case "lastModified" -> lastModified = Long.parseLong(parts[1]);
+                    case "verified" -> verified = parts[1];
+                    default -> digests.put(parts[0], parts[1]);
+                }
+            }
+            if (size != Files.size(artifact) || lastModified != Files.getLastModifiedTime(artifact).toMillis()) {
+                return Optional.empty();
+            }
+            return Optional.of(new Checksums(size, lastModified, Optional.ofNullable(verified), digests));
+        } catch (IOException | RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    void write(Path artifact) throws IOException {
+        var contents = new StringBuilder();
+        contents.append("size ").append(size).append('\n');
+        contents.append("lastModified ").append(lastModified).append('\n');
+        verified.ifPresent(algorithm -> contents.append("verified ").append(algorithm).append('\n'));
+        digests.forEach((algorithm, digest) -> contents.append(algorithm).append(' ').append(digest).append('\n'));
+        AtomicFiles.writeString(file(artifact), contents.toString());
+    }
+
+    /**
+     * The SHA-256 of a file, reusing the stored one when the file is in the cache
+     * and storing it for next time when it wasn't there already.
+     */
+    static String sha256(Path artifact, CacheLayout cacheLayout) {
+        var root = cacheLayout.root().toAbsolutePath().normalize();
+        if (!artifact.toAbsolutePath().normalize().startsWith(root)) {
+            return Digests.sha256(artifact);
+        }
+
+        var stored = read(artifact).orElse(null);
+        if (stored != null && stored.digests().containsKey(SHA_256)) {
+            return stored.digests().get(SHA_256);
+        }
+
+        var sha256 = Digests.sha256(artifact);
+        try {
+            var digests = new TreeMap<String, String>();
+            if (stored != null) {
+                digests.putAll(stored.digests());
+            }
+            digests.put(SHA_256, sha256);
+            of(artifact, stored == null ? Optional.empty() : stored.verified(), digests).write(artifact);
+        } catch (IOException e) {
+            // Only means it gets hashed again next time
+        }
+        return sha256;
+    }
+}
@@ -6,29 +6,13 @@ import dev.mccue.purl.InvalidException;
 import dev.mccue.purl.PackageUrl;
 import dev.mccue.resolve.*;
 import dev.mccue.resolve.maven.Classifier;
-import dev.mccue.resolve.maven.MavenCoordinate;
 import dev.mccue.resolve.maven.MavenRepository;
 import dev.mccue.resolve.maven.Scope;
 import org.tomlj.Toml;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 import picocli.CommandLine;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.stream.XMLStreamException;
 import java.io.*;
-import java.lang.module.ModuleDescriptor;
-import java.lang.module.ModuleFinder;
-import java.lang.module.ModuleReference;
-import java.net.Authenticator;
-import java.net.PasswordAuthentication;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.http.HttpClient;
@@ -36,8 +20,14 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -49,11 +39,15 @@ import static dev.mccue.json.JsonDecoder.string;
         name = "jresolve",
         mixinStandardHelpOptions = true,
         version = "2025.02.15",
-        description = "Resolves dependencies for the JVM."
+        description = "Resolves dependencies for the JVM.",
+        subcommands = CacheCommand.class
 )
 public final class CliMain implements Callable<Integer> {
     private final PrintWriter out;
     private final PrintWriter err;
+    private final Path workingDirectory;
+    private final Session session;
+    private Metrics metrics = new Metrics();
     @CommandLine.Option(
             names = {"--output-file"},
             description = "File to output computed path to."
@@ -75,18 +69,17 @@ public final class CliMain implements Callable<Integer> {
     )
     public File mavenRepositoriesFile;
 
-    /*
     @CommandLine.Option(
             names = {"--resolution-file"},
-            description = "File to save resolutions in to."
+            description = "Lockfile to save resolutions in to. Reused without resolving while the inputs are unchanged."
     )
     public File resolutionFile = null;
 
     @CommandLine.Option(
             names = {"--select"},
-            description = "Selects dependencies from the given resolution file."
+            description = "Only select dependencies from the given resolution file, failing if it is out of date."
     )
-    public boolean select = false; */
+    public boolean select = false;
 
     /*
     @CommandLine.Option(
@@ -106,12 +99,38 @@ public final class CliMain implements Callable<Integer> {
             description = "Skip fetching artifacts and print the result of dependency resolution"
     )
     public boolean printTree = false;
+    @CommandLine.Option(
+            names = "--tree-format",
+            description = "Format of --print-tree: ${COMPLETION-CANDIDATES}. json writes one node per line.",
+            defaultValue = "text"
+    )
+    public TreeFormat treeFormat = TreeFormat.text;
+    @CommandLine.Option(
+            names = "--depth",
+            description = "Number of levels of the tree to print with --print-tree, or 0 for all of them",
+            defaultValue = "0"
+    )
+    public int treeDepth = 0;
     @CommandLine.Option(
             names = {"--cache-path"},
             description = "Path to use for caching the files fetched during dependency resolution"
     )
     public File cachePath = null;
 
+    @CommandLine.Option(
+            names = "--read-only-cache",
+            description = "A pre-populated cache to use before the network, without ever writing to it. "
+                    + "Can be given more than once and is checked in order.",
+            split = ","
+    )
+    public File[] readOnlyCaches = new File[]{};
+
+    @CommandLine.Option(
+            names = "--content-addressed-cache",
+            description = "Keep one copy of artifacts with identical contents in the cache, hard linked wherever they are used"
+    )
+    public boolean contentAddressedCache = false;
+
     @CommandLine.Option(
             names = {"--use-module-names"},
             description = "Save files in the output directory using the module names the jars represent."
@@ -124,12 +143,118 @@ public final class CliMain implements Callable<Integer> {
     )
     public boolean purgeOutputDirectory = false;
 
+    @CommandLine.Option(
+            names = "--offline",
+            description = "Only use what is already in the cache, failing with a list of anything missing"
+    )
+    public boolean offline = false;
+
+    @CommandLine.Option(
+            names = "--metrics",
+            description = "File to write a JSON report of phase timings, repository requests and cache usage to"
+    )
+    public File metricsFile = null;
+
+    @CommandLine.Option(
+            names = "--link-mode",
+            description = "How to place artifacts in the output directory: ${COMPLETION-CANDIDATES}. "
+                    + "Links fall back to copying when they can't be made.",
+            defaultValue = "copy"
+    )
+    public LinkMode linkMode = LinkMode.copy;
+
+    @CommandLine.Option(
+            names = "--sync-output-directory",
+            description = "Only write artifacts in the output directory that changed and remove ones no longer needed"
+    )
+    public boolean syncOutputDirectory = false;
+
+    @CommandLine.Option(
+            names = "--fetch-parallelism",
+            description = "Maximum number of artifacts to download at once",
+            defaultValue = "16"
+    )
+    public int fetchParallelism = 16;
+
+    @CommandLine.Option(
+            names = "--fetch-parallelism-per-host",
+            description = "Maximum number of artifacts to download at once from any one repository host",
+            defaultValue = "6"
+    )
+    public int fetchParallelismPerHost = 6;
+
+    @CommandLine.Option(
+            names = "--fetch-retries",
+            description = "How many times to retry a download that was cut off, timed out or met a server error",
+            defaultValue = "4"
+    )
+    public int fetchRetries = 4;
+
+    @CommandLine.Option(
+            names = "--fetch-request-timeout",
+            description = "ISO-8601 duration to wait for a repository to start responding to a download",
+            defaultValue = "PT1M"
+    )
+    public String fetchRequestTimeout = "PT1M";
+
+    @CommandLine.Option(
+            names = "--fetch-timeout",
+            description = "ISO-8601 duration to spend downloading any one artifact, across every retry",
+            defaultValue = "PT30M"
+    )
+    public String fetchTimeout = "PT30M";
+
+    @CommandLine.Option(
+            names = "--emit-cds-archive",
+            description = "File to write an AppCDS archive to, made by launching --main-class on the resolved path. "
+                    + "Only made again when the resolved jars change."
+    )
+    public File cdsArchive = null;
+
+    @CommandLine.Option(
+            names = "--main-class",
+            description = "Class to launch when training the AppCDS archive"
+    )
+    public String mainClass = null;
+
+    @CommandLine.Option(
+            names = "--cds-training-arg",
+            description = "Argument to launch --main-class with when training. Can be given more than once."
+    )
+    public List<String> cdsTrainingArgs = new ArrayList<>();
+
+    @CommandLine.Option(
+            names = "--cds-training-timeout",
+            description = "ISO-8601 duration after which a training run that hasn't exited is stopped",
+            defaultValue = "PT2M"
+    )
+    public String cdsTrainingTimeout = "PT2M";
+
+    @CommandLine.Option(
+            names = "--cds-java",
+            description = "The java launcher the archive will be used with. Defaults to the one running jresolve or in JAVA_HOME."
+    )
+    public File cdsJava = null;
+
+    @CommandLine.Option(
+            names = "--watch",
+            description = "Stay running and resolve again whenever the dependency files, repositories file or jproject.toml change"
+    )
+    public boolean watch = false;
+
     @CommandLine.Parameters(paramLabel = "dependencies", description = "Package urls of dependencies")
     public String[] dependencies = new String[]{};
 
+
     public CliMain(PrintWriter out, PrintWriter err) {
+        this(out, err, Path.of("").toAbsolutePath(), new Session());
+    }
+
+    CliMain(PrintWriter out, PrintWriter err, Path workingDirectory, Session session) {
         this.out = out;
         this.err = err;
+        this.workingDirectory = workingDirectory;
+        this.session = session;
     }
 
 
@@ -138,32 +263,284 @@ public final class CliMain implements Callable<Integer> {
     }
 
     public static void main(String... args) {
+        var daemonSocket = System.getenv("JRESOLVE_DAEMON_SOCKET");
+        if (daemonSocket != null && !daemonSocket.isBlank() && !Arrays.asList(args).contains("daemon")) {
+            var exitCode = DaemonClient.run(
+                    Path.of(daemonSocket),
+                    Path.of("").toAbsolutePath(),
+                    args,
+                    System.out,
+                    System.err
+            );
+            if (exitCode.isPresent()) {
+                System.exit(exitCode.getAsInt());
+            }
+        }
+
         int exitCode = new CommandLine(new CliMain())
                 .execute(args);
         System.exit(exitCode);
     }
 
     private CacheKey uriToCacheKey(URI uri) {
-        var url = uri.toString();
-        if (url.endsWith("/")) {
-            url = url.substring(0, url.length() - 1);
+        return new CacheKey(CacheLayout.keyComponents(uri));
+    }
+
+    @CommandLine.Command(
+            name = "daemon",
+            description = "Runs a resident process that other invocations forward to when JRESOLVE_DAEMON_SOCKET is set."
+    )
+    public int daemon(
+            @CommandLine.Option(
+                    names = "--socket",
+                    description = "Unix domain socket to listen on. Defaults to ~/.jresolve/daemon.sock"
+            )
+            File socket,
+            @CommandLine.Option(
+                    names = "--idle-timeout",
+                    description = "ISO-8601 duration without requests after which the daemon exits",
+                    defaultValue = "PT30M"
+            )
+            String idleTimeout
+    ) throws Exception {
+        return new Daemon(
+                socket == null ? Daemon.defaultSocket() : path(socket),
+                Duration.parse(idleTimeout),
+                err
+        ).run();
+    }
+
+    @CommandLine.Command(
+            name = "batch",
+            description = "Runs many independent resolutions from a manifest in one process."
+    )
+    public int batch(
+            @CommandLine.Parameters(
+                    paramLabel = "manifest",
+                    description = "JSON lines file with one request per line, or a TOML file with a [[request]] table per request"
+            )
+            File manifest,
+            @CommandLine.Option(
+                    names = "--parallelism",
+                    description = "Maximum number of requests to run at once",
+                    defaultValue = "4"
+            )
+            int parallelism
+    ) throws Exception {
+        var manifestPath = path(manifest);
+        var requests = new ArrayList<BatchRequest>();
+        if (manifestPath.getFileName().toString().endsWith(".toml")) {
+            var toml = Toml.parse(manifestPath);
+            if (toml.hasErrors()) {
+                err.println("Encountered errors when parsing " + manifest);
+                toml.errors().forEach(error -> err.println(error.toString()));
+                err.flush();
+                return 1;
+            }
+            requests.addAll(optionalField(
+                    Json.read(toml.toJson()),
+                    "request",
+                    array(BatchRequest::fromJson),
+                    List.of()
+            ));
+        } else {
+            for (var line : Files.readAllLines(manifestPath)) {
+                if (!line.isBlank()) {
+                    requests.add(BatchRequest.fromJson(Json.readString(line)));
+                }
+            }
+        }
+
+        // Options given to batch itself apply to every request
+        var sharedArgs = new ArrayList<String>();
+        if (cachePath != null) {
+            sharedArgs.add("--cache-path");
+            sharedArgs.add(path(cachePath).toString());
+        }
+        if (mavenRepositoriesFile != null) {
+            sharedArgs.add("--maven-repositories-file");
+            sharedArgs.add(path(mavenRepositoriesFile).toString());
+        }
+        for (var readOnlyCache : readOnlyCaches) {
+            sharedArgs.add("--read-only-cache");
+            sharedArgs.add(path(readOnlyCache).toString());
+        }
+        if (offline) {
+            sharedArgs.add("--offline");
+        }
+        // and every request downloads within the same limits, since they share the session
+        sharedArgs.add("--fetch-parallelism=" + fetchParallelism);
+        sharedArgs.add("--fetch-parallelism-per-host=" + fetchParallelismPerHost);
+        sharedArgs.add("--fetch-retries=" + fetchRetries);
+        sharedArgs.add("--fetch-request-timeout=" + fetchRequestTimeout);
+        sharedArgs.add("--fetch-timeout=" + fetchTimeout);
+
+        record Outcome(int exitCode, String out, String err) {}
+
+        var permits = new Semaphore(Math.max(1, parallelism));
+        var outcomes = new ArrayList<Future<Outcome>>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var request : requests) {
+                outcomes.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        var requestOut = new StringWriter();
+                        var requestErr = new StringWriter();
+                        var requestOutWriter = new PrintWriter(requestOut);
+                        var requestErrWriter = new PrintWriter(requestErr);
+                        var args = new ArrayList<>(sharedArgs);
+                        args.addAll(request.toArgs());
+                        var exitCode = new CommandLine(new CliMain(
+                                requestOutWriter,
+                                requestErrWriter,
+                                request.directory().map(workingDirectory::resolve).orElse(workingDirectory),
+                                session
+                        ))
+                                .setOut(requestOutWriter)
+                                .setErr(requestErrWriter)
+                                .execute(args.toArray(String[]::new));
+                        requestOutWriter.flush();
+                        requestErrWriter.flush();
+                        return new Outcome(exitCode, requestOut.toString(), requestErr.toString());
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+
+        // Reported in manifest order regardless of which finished first
+        var failures = 0;
+        for (int i = 0; i < outcomes.size(); i++) {
+            var outcome = outcomes.get(i).get();
+            out.print(outcome.out());
+            if (!outcome.err().isEmpty() || outcome.exitCode() != 0) {
+                err.println(requests.get(i).describe(i + 1) + (outcome.exitCode() == 0 ? ":" : " failed:"));
+                err.print(outcome.err());
+            }
+            if (outcome.exitCode() != 0) {
+                failures++;
+            }
         }
+        out.flush();
+        err.flush();
 
-        return new CacheKey(Arrays.asList(url.split("((:)*/)+")));
+        return failures == 0 ? 0 : 1;
     }
 
     @CommandLine.Command(name = "install")
-    public int install() throws Exception {
-        if (!Files.exists(Path.of("jproject.toml"))) {
+    public int install(
+            @CommandLine.Option(
+                    names = "--parallelism",
+                    description = "Maximum number of dependency sets to resolve at once",
+                    defaultValue = "4"
+            )
+            int parallelism
+    ) throws Exception {
+        if (watch) {
+            var inputs = new ArrayList<Path>();
+            inputs.add(workingDirectory.resolve("jproject.toml"));
+            if (mavenRepositoriesFile != null) {
+                inputs.add(path(mavenRepositoriesFile));
+            }
+            return watch(inputs, () -> installProject(workingDirectory.resolve("dependencySets"), parallelism));
+        }
+        return measured(() -> installProject(workingDirectory.resolve("dependencySets"), parallelism));
+    }
+
+    /*
+     * Resolves and fetches everything the given dependency files and jproject.tomls need,
+     * into the given cache. Nothing is written outside of it, so the dependency sets of a
+     * project are generated in a scratch directory and thrown away.
+     *
+     * Each manifest is resolved from its own directory, with the same repositories and
+     * fetch options as this run. They share the session, so their downloads together stay
+     * within this run's limits.
+     */
+    int prefetch(List<Path> manifests, int parallelism, Path cacheRoot, List<Path> layers) throws Exception {
+        record Outcome(int exitCode, String err) {}
+
+        var permits = new Semaphore(Math.max(1, parallelism));
+        var outcomes = new ArrayList<Future<Outcome>>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var manifest : manifests) {
+                outcomes.add(executor.submit(() -> {
+                    permits.acquire();
+                    var manifestErr = new StringWriter();
+                    var manifestErrWriter = new PrintWriter(manifestErr);
+                    try {
+                        var prefetcher = prefetcher(manifest.toAbsolutePath().getParent(), cacheRoot, layers, manifestErrWriter);
+                        int exitCode;
+                        if (manifest.getFileName().toString().endsWith(".toml")) {
+                            var scratch = Files.createTempDirectory("jresolve-prefetch");
+                            try {
+                                exitCode = prefetcher.measured(() -> prefetcher.installProject(scratch, 1));
+                            } finally {
+                                CacheCommand.deleteRecursively(scratch);
+                            }
+                        } else {
+                            prefetcher.dependencyFile = new File[]{manifest.toFile()};
+                            exitCode = prefetcher.measured(prefetcher::resolveDependencies);
+                        }
+                        manifestErrWriter.flush();
+                        return new Outcome(exitCode, manifestErr.toString());
+                    } catch (Exception e) {
+                        manifestErrWriter.println(e.getMessage() == null ? e.toString() : e.getMessage());
+                        manifestErrWriter.flush();
+                        return new Outcome(1, manifestErr.toString());
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+
+        var failures = 0;
+        for (int i = 0; i < outcomes.size(); i++) {
+            var outcome = outcomes.get(i).get();
+            if (!outcome.err().isEmpty() || outcome.exitCode() != 0) {
+                err.println(manifests.get(i) + (outcome.exitCode() == 0 ? ":" : " failed:"));
+                err.print(outcome.err());
+            }
+            if (outcome.exitCode() != 0) {
+                failures++;
+            }
+        }
+        err.flush();
+        return failures;
+    }
+
+    private CliMain prefetcher(Path directory, Path cacheRoot, List<Path> layers, PrintWriter err) {
+        var prefetcher = new CliMain(new PrintWriter(Writer.nullWriter()), err, directory, session);
+        prefetcher.cachePath = cacheRoot.toFile();
+        prefetcher.readOnlyCaches = layers.stream().map(Path::toFile).toArray(File[]::new);
+        prefetcher.mavenRepositoriesFile = mavenRepositoriesFile == null ? null : path(mavenRepositoriesFile).toFile();
+        prefetcher.offline = offline;
+        prefetcher.contentAddressedCache = contentAddressedCache;
+        prefetcher.fetchParallelism = fetchParallelism;
+        prefetcher.fetchParallelismPerHost = fetchParallelismPerHost;
+        prefetcher.fetchRetries = fetchRetries;
+        prefetcher.fetchRequestTimeout = fetchRequestTimeout;
+        prefetcher.fetchTimeout = fetchTimeout;
+        return prefetcher;
+    }
+
+    List<Path> readOnlyCaches() {
+        return Arrays.stream(readOnlyCaches).map(this::path).toList();
+    }
+
+    private int installProject(Path dependencySetsPath, int parallelism) throws Exception {
+        if (!Files.exists(workingDirectory.resolve("jproject.toml"))) {
             err.println("No jproject.toml found");
             err.flush();
             return 1;
         }
 
-        var toml = Toml.parse(Path.of("jproject.toml"));
+        var toml = Toml.parse(workingDirectory.resolve("jproject.toml"));
         if (toml.hasErrors()) {
-            System.err.println("Encountered errors when parsing jproject.toml");
-            toml.errors().forEach(error -> System.err.println(error.toString()));
+            err.println("Encountered errors when parsing jproject.toml");
+            toml.errors().forEach(error -> err.println(error.toString()));
+            err.flush();
             return 1;
         }
 
@@ -185,41 +562,28 @@ public final class CliMain implements Callable<Integer> {
                 extends_.ifPresent(e -> dependencySetExtends.put(set, e));
             });
 
-            record UsagesAndDep(List<Usage> usages, Dependency dependency) {}
+            var extendsCycle = findExtendsCycle(dependencySetExtends);
+            if (extendsCycle != null) {
+                err.println("Dependency sets form a cycle through \"extends\": " + String.join(" -> ", extendsCycle));
+                err.flush();
+                return 1;
+            }
+
+            // Map from dependency set to every set that extends it, directly or transitively
+            var dependencySetExtendedBy = new HashMap<String, List<String>>();
+            for (var set : new TreeSet<>(dependencySetExtends.keySet())) {
+                for (var ancestor : extendsChain(set, dependencySetExtends)) {
+                    dependencySetExtendedBy.computeIfAbsent(ancestor, k -> new ArrayList<>()).add(set);
+                }
+            }
 
             var dependencySetToDeps = new HashMap<String, List<UsagesAndDep>>();
             var dependencies = optionalField(project, "dependencies", array())
                     .orElse(null);
             if (dependencies != null && !dependencies.isEmpty()) {
-                var dependencySetsPath = Path.of("dependencySets");
-                try {
-                    Files.walkFileTree(dependencySetsPath, new SimpleFileVisitor<>() {
-                        @Override
-                        public FileVisitResult visitFile(Path file,
-                                                         BasicFileAttributes attrs) throws IOException {
-                            Files.delete(file);
-                            return FileVisitResult.CONTINUE;
-                        }
-
-                        @Override
-                        public FileVisitResult postVisitDirectory(Path dir,
-                                                                  IOException e) throws IOException {
-                            if (e == null) {
-                                Files.delete(dir);
-                                return FileVisitResult.CONTINUE;
-                            } else {
-                                throw e;
-                            }
-                        }
-
-                    });
-                } catch (NoSuchFileException e) {
-                    // NoOp
-                }
-
                 for (var dependencyObject : dependencies) {
                     var coordinate = field(dependencyObject, "coordinate", string());
-                    Dependency dependency = Dependency.fromCoordinate(coordinate);
+                    Dependency dependency = Dependency.fromCoordinate(coordinate, repositories().mavenRepositories());
 
                     var usages = optionalField(dependencyObject, "usage", JsonDecoder.oneOf(
                             string().map(Usage::new).map(List::of),
@@ -242,72 +606,692 @@ public final class CliMain implements Callable<Integer> {
                     }
 
                     dependencySets = new LinkedHashSet<>(dependencySets);
-
-                    // Doing the tree logic for extends is annoying
-                    // Doing N passes over the array works too and is less
-                    // annoying to write, if harder to read and slower and bad
-                    for (int i = 0; i < dependencySetExtends.size(); i++) {
-                        for (var entry : dependencySetExtends.entrySet()) {
-                            if (dependencySets.contains(entry.getValue())) {
-                                dependencySets.add(entry.getKey());
-                            }
-                        }
+                    for (var dependencySet : List.copyOf(dependencySets)) {
+                        dependencySets.addAll(dependencySetExtendedBy.getOrDefault(dependencySet, List.of()));
                     }
 
                     for (String dependencySet : dependencySets) {
                         dependencySetToDeps.putIfAbsent(dependencySet, new ArrayList<>());
-                        dependencySetToDeps.get(dependencySet).add(new UsagesAndDep(usages, dependency));
+                        dependencySetToDeps.get(dependencySet).add(new UsagesAndDep(coordinate, usages, dependency));
                     }
                 }
 
+                removeStaleDependencySets(dependencySetsPath, dependencySetToDeps.keySet());
+
+                // Only sets whose inputs changed since the last install need to be resolved again
+                var fingerprints = new TreeMap<String, String>();
+                var outdated = new TreeMap<String, List<UsagesAndDep>>();
+                var environment = resolutionEnvironment();
                 for (var entry : dependencySetToDeps.entrySet()) {
                     var dependencySet = entry.getKey();
+                    var fingerprint = dependencySetFingerprint(
+                            dependencySet,
+                            entry.getValue(),
+                            defaultUsage,
+                            dependencySetExtends,
+                            environment
+                    );
+                    if (isDependencySetUpToDate(dependencySetsPath, dependencySet, fingerprint)) {
+                        metrics.increment("dependencySets.unchanged");
+                    } else {
+                        metrics.increment("dependencySets.installed");
+                        fingerprints.put(dependencySet, fingerprint);
+                        outdated.put(dependencySet, entry.getValue());
+                    }
+                }
 
-                    var libraryToUsages = new LinkedHashMap<Library, Set<Usage>>();
-
-                    var usagesAndDeps = entry.getValue();
+                // Sets are independent of each other, so they are resolved and fetched concurrently.
+                // Results are still written in a fixed order so errors and output are deterministic.
+                //
+                // A set that ends up with exactly the same dependencies as another shares its
+                // resolution. One that extends another still resolves its whole graph, parent's
+                // part included, since what it adds can change which versions the parent's
+                // dependencies get. Unchanged sets resolved earlier in the session are reused.
+                var cache = cache();
+                var repositories = repositories();
+                var permits = new Semaphore(Math.max(1, parallelism));
+                var installs = new TreeMap<String, Future<String>>();
+                var resolutions = new HashMap<String, Future<String>>();
+                try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                    for (var dependencySet : outdated.keySet()) {
+                        var usagesAndDeps = outdated.get(dependencySet);
+                        installs.put(dependencySet, resolutions.computeIfAbsent(
+                                resolutionKey(usagesAndDeps, defaultUsage),
+                                key -> executor.submit(() -> {
+                                    permits.acquire();
+                                    try {
+                                        return installDependencySet(cache, repositories, usagesAndDeps, defaultUsage);
+                                    } finally {
+                                        permits.release();
+                                    }
+                                })
+                        ));
+                    }
+                }
 
-                    var resolve = new Resolve();
-                    for (var usagesAndDep : usagesAndDeps) {
-                        libraryToUsages.put(usagesAndDep.dependency.library(), new LinkedHashSet<>(usagesAndDep.usages));
-                        resolve.addDependency(usagesAndDep.dependency);
+                var failed = false;
+                for (var entry : installs.entrySet()) {
+                    var dependencySet = entry.getKey();
+                    try {
+                        AtomicFiles.writeString(dependencySetsPath.resolve(dependencySet), entry.getValue().get());
+                        // Written last, so an interrupted install is redone on the next run
+                        AtomicFiles.writeString(
+                                fingerprintFile(dependencySetsPath, dependencySet),
+                                fingerprints.get(dependencySet)
+                        );
+                    } catch (ExecutionException e) {
+                        var cause = e.getCause();
+                        var notCached = NotCachedException.find(cause);
+                        if (notCached.isEmpty()) {
+                            err.println("Failed to install dependency set " + dependencySet + ": "
+                                    + (cause.getMessage() == null ? cause.toString() : cause.getMessage()));
+                            err.flush();
+                        } else {
+                            err.println("Failed to install dependency set " + dependencySet + ":");
+                            reportNotCached(notCached, repositories);
+                        }
+                        failed = true;
                     }
+                }
+
+                if (failed) {
+                    return 1;
+                }
+            }
+        }
+        return 0;
+    }
 
-                    var resolution = resolve.run();
+    private String repositoriesFileContents() throws IOException {
+        return mavenRepositoriesFile == null
+                ? ""
+                : Files.readString(path(mavenRepositoriesFile));
+    }
 
-                    var librariesForUsage = resolution.librariesForUsage(
-                            libraryToUsages,
-                            defaultUsage
-                    );
+    private Repositories repositories() throws IOException {
+        return session.repositories(
+                repositoriesFileContents(),
+                offline,
+                CacheLayers.of(readOnlyCaches())
+        );
+    }
 
-                    var fetch = resolution.fetch().run();
-
-                    var args = new ArrayList<String>();
-                    librariesForUsage.forEach(((usage, libraries) -> {
-                        if (!libraries.isEmpty()) {
-                            var libToPath = new HashMap<>(fetch.libraries());
-                            libToPath.keySet().retainAll(libraries);
-                            args.add(usage.value());
-                            args.add(libToPath.values()
-                                    .stream()
-                                    .map(Path::toString)
-                                    .collect(Collectors.joining(File.pathSeparator)));
+    /*
+     * Relative paths given on the command line are relative to the working directory
+     * of whoever invoked the command, which for the daemon is not this process's.
+     */
+    Path path(File file) {
+        return workingDirectory.resolve(file.toPath());
+    }
+
+    CacheLayout cacheLayout() {
+        return CacheLayout.of(cachePath == null ? null : path(cachePath));
+    }
+
+    private Cache cache() {
+        return session.cache(cachePath == null ? null : path(cachePath));
+    }
+
+    private CacheIndex cacheIndex() {
+        return session.cacheIndex(cacheLayout());
+    }
+
+    private ArtifactDownloader artifactDownloader() {
+        return new ArtifactDownloader(
+                session.downloadLimits(fetchParallelism, fetchParallelismPerHost),
+                new CacheLocks(cacheLayout()),
+                contentAddressedCache ? Optional.of(new ContentStore(cacheLayout())) : Optional.empty(),
+                new ArtifactDownloader.RetryPolicy(
+                        fetchRetries,
+                        Duration.parse(fetchRequestTimeout),
+                        Duration.parse(fetchTimeout)
+                ),
+                err
+        );
+    }
+
+    private CacheUsage cacheUsage() {
+        return session.cacheUsage(cacheLayout());
+    }
+
+    PrintWriter out() {
+        return out;
+    }
+
+    PrintWriter err() {
+        return err;
+    }
+
+    Session session() {
+        return session;
+    }
+
+    /*
+     * Cached snapshots and metadata of the direct dependencies are revalidated first. Transitive
+     * ones are only known after resolving, so if any of those have changed it resolves again.
+     *
+     * An earlier resolution of the same dependencies in this session is reused as long as none
+     * of them could have changed upstream.
+     */
+    private Resolution resolve(
+            Cache cache,
+            List<Dependency> dependencies,
+            Repositories repositories
+    ) throws Exception {
+        Metrics.Measured<Resolution> run = () -> {
+            var resolve = new Resolve().withCache(cache);
+            resolve.addDependencies(dependencies);
+            return resolve.run();
+        };
+
+        var updated = revalidate(dependencies, repositories);
+        var remembered = updated ? null : session.resolution(cache, repositories, dependencies).orElse(null);
+        if (remembered != null) {
+            metrics.increment("resolutions.reused");
+            return remembered;
+        }
+
+        var resolution = metrics.measure("resolve", run);
+        if (revalidate(resolution.selectedDependencies(), repositories)) {
+            resolution = metrics.measure("resolve", run);
+        }
+        if (isImmutable(dependencies, resolution)) {
+            session.resolved(cache, repositories, dependencies, resolution);
+        }
+        return resolution;
+    }
+
+    /*
+     * Whether nothing the resolution was made from can change upstream, which is when it can
+     * be reused later in the same session without asking the repositories again.
+     */
+    private static boolean isImmutable(List<Dependency> dependencies, Resolution resolution) {
+        for (var dependency : dependencies) {
+            var artifact = MavenArtifact.of(dependency.coordinate()).orElse(null);
+            if (artifact == null || artifact.isSnapshot() || artifact.isVersionRange()) {
+                return false;
+            }
+        }
+        for (var dependency : resolution.selectedDependencies()) {
+            var artifact = MavenArtifact.of(dependency.coordinate()).orElse(null);
+            if (artifact == null || artifact.isSnapshot()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Asks the repositories about cached files of the given dependencies that can change upstream
+     * and are older than the repository's metadataTtl, returning whether any of them had.
+     */
+    private boolean revalidate(
+            Collection<? extends Dependency> dependencies,
+            Repositories repositories
+    ) throws InterruptedException {
+        if (repositories.offline()) {
+            return false;
+        }
+
+        var cacheLayout = cacheLayout();
+        var revalidator = new Revalidator(new CacheLocks(cacheLayout));
+        var permits = new Semaphore(Math.max(1, fetchParallelism));
+        var updated = new AtomicBoolean();
+        try (var ignored = metrics.phase("revalidate");
+             var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var dependency : dependencies) {
+                var artifact = MavenArtifact.of(dependency.coordinate()).orElse(null);
+                if (artifact == null) {
+                    continue;
+                }
+                for (var repository : repositories.declarations().values()) {
+                    for (var uri : artifact.mutableUris(repository)) {
+                        var cached = cacheLayout.pathOf(uri);
+                        if (!Files.isRegularFile(cached)) {
+                            continue;
                         }
+                        executor.submit(() -> {
+                            permits.acquire();
+                            try {
+                                var outcome = revalidator.revalidate(
+                                        uri,
+                                        cached,
+                                        repositories.networkClient(repository),
+                                        repository.metadataTtl().orElse(Repository.DEFAULT_METADATA_TTL)
+                                );
+                                switch (outcome) {
+                                    case FRESH -> {}
+                                    case NOT_MODIFIED -> metrics.increment("revalidation.notModified");
+                                    case UPDATED -> {
+                                        metrics.increment("revalidation.updated");
+                                        updated.set(true);
+                                    }
+                                    case UNAVAILABLE -> metrics.increment("revalidation.unavailable");
+                                }
+                            } catch (IOException e) {
+                                // Kept as cached, like when the repository doesn't answer
+                                metrics.increment("revalidation.unavailable");
+                            } finally {
+                                permits.release();
+                            }
+                            return null;
+                        });
+                    }
+                }
+            }
+        }
+        return updated.get();
+    }
 
-                    }));
+    /*
+     * Downloads the jars of the selected dependencies into the cache concurrently, so the
+     * resolver's own fetch finds them already present. The repository for each artifact
+     * is the one its pom was cached from during resolution, falling back to central.
+     *
+     * Jars in a read-only cache layer are linked in rather than downloaded.
+     *
+     * When offline nothing is downloaded, and every jar that is not already cached is
+     * reported at once instead of failing on them one by one.
+     */
+    private void prefetch(
+            Collection<? extends Dependency> selectedDependencies,
+            Repositories repositories
+    ) throws InterruptedException, NotCachedException, DownloadFailedException {
+        var cacheLayout = cacheLayout();
+        var cacheIndex = cacheIndex();
+        var cacheUsage = cacheUsage();
+        var cacheLocks = new CacheLocks(cacheLayout);
+        var downloads = new ArrayList<ArtifactDownloader.Download>();
+        for (var dependency : selectedDependencies) {
+            var artifact = MavenArtifact.of(dependency.coordinate()).orElse(null);
+            if (artifact == null || artifact.isSnapshot()) {
+                continue;
+            }
 
+            var repository = repositories.declarations()
+                    .values()
+                    .stream()
+                    .filter(candidate -> cacheIndex.contains(artifact.uri(candidate, "pom")))
+                    .findFirst()
+                    .orElse(repositories.central());
+            var uri = artifact.uri(repository, "jar");
+            if (cacheIndex.contains(uri)) {
+                metrics.increment("cache.hits");
+                cacheUsage.hit(cacheLayout.pathOf(uri));
+                continue;
+            }
+            var layered = repositories.layers().find(uri).orElse(null);
+            if (layered != null) {
+                try (var ignored = cacheLocks.lock(cacheLayout.pathOf(uri))) {
+                    if (!Files.exists(cacheLayout.pathOf(uri))) {
+                        CacheLayers.link(layered, cacheLayout.pathOf(uri));
+                    }
+                    cacheIndex.add(uri);
+                    metrics.increment("cache.layerHits");
+                    cacheUsage.hit(cacheLayout.pathOf(uri));
+                    continue;
+                } catch (IOException e) {
+                    // Downloaded like anything else instead
+                }
+            }
+            metrics.increment("cache.misses");
+            cacheUsage.miss(cacheLayout.pathOf(uri));
+            downloads.add(new ArtifactDownloader.Download(
+                    uri,
+                    cacheLayout.pathOf(uri),
+                    repositories.client(repository)
+            ));
+        }
+
+        if (repositories.offline()) {
+            if (!downloads.isEmpty()) {
+                throw new NotCachedException(downloads.stream()
+                        .map(ArtifactDownloader.Download::uri)
+                        .toList());
+            }
+            return;
+        }
+
+        var failures = artifactDownloader().downloadAll(downloads);
+        var failed = failures.stream()
+                .map(failure -> failure.download().uri())
+                .collect(Collectors.toSet());
+        for (var download : downloads) {
+            if (!failed.contains(download.uri())) {
+                cacheIndex.add(download.uri());
+            }
+        }
+        checkFailures(failures);
+    }
 
+    private static void checkFailures(List<ArtifactDownloader.Failure> failures) throws DownloadFailedException {
+        var failed = failures.stream()
+                .filter(failure -> !failure.leftForResolver())
+                .toList();
+        if (!failed.isEmpty()) {
+            throw new DownloadFailedException(failed);
+        }
+    }
 
-                    Files.createDirectories(dependencySetsPath);
-                    Files.writeString(dependencySetsPath.resolve(dependencySet), String.join("\n", args));
+    /*
+     * Puts artifacts recorded in a lockfile back into the cache without resolving anything.
+     */
+    private void fetchMissing(
+            Lockfile lockfile,
+            Repositories repositories
+    ) throws InterruptedException, DownloadFailedException {
+        if (repositories.offline()) {
+            return;
+        }
+
+        var cacheLayout = cacheLayout();
+        var downloads = new ArrayList<ArtifactDownloader.Download>();
+        for (var artifact : lockfile.artifacts()) {
+            if (artifact.isPresent(cacheLayout) || artifact.source().isEmpty()) {
+                continue;
+            }
+
+            var source = artifact.source().get();
+            var target = artifact.path(cacheLayout);
+            if (!cacheLayout.pathOf(source).toAbsolutePath().normalize().equals(target.toAbsolutePath().normalize())) {
+                continue;
+            }
+            // Whatever is there has the wrong contents, and would be taken as already downloaded
+            try {
+                Files.deleteIfExists(target);
+            } catch (IOException e) {
+                continue;
+            }
+
+            downloads.add(new ArtifactDownloader.Download(
+                    source,
+                    target,
+                    repositories.clientFor(source),
+                    Optional.of(artifact.sha256())
+            ));
+        }
+
+        checkFailures(artifactDownloader().downloadAll(downloads));
+    }
+
+    private record UsagesAndDep(String coordinate, List<Usage> usages, Dependency dependency) {}
+
+    private static Path fingerprintFile(Path dependencySetsPath, String dependencySet) {
+        return dependencySetsPath.resolve("." + dependencySet + ".fingerprint");
+    }
+
+    /*
+     * The sets a dependency set extends, nearest first. Assumes there are no cycles.
+     */
+    private static List<String> extendsChain(String dependencySet, Map<String, String> dependencySetExtends) {
+        var chain = new ArrayList<String>();
+        var current = dependencySetExtends.get(dependencySet);
+        while (current != null) {
+            chain.add(current);
+            current = dependencySetExtends.get(current);
+        }
+        return chain;
+    }
+
+    private static List<String> findExtendsCycle(Map<String, String> dependencySetExtends) {
+        var acyclic = new HashSet<String>();
+        for (var start : new TreeSet<>(dependencySetExtends.keySet())) {
+            var path = new ArrayList<String>();
+            var current = start;
+            while (current != null && !acyclic.contains(current)) {
+                var index = path.indexOf(current);
+                if (index != -1) {
+                    var cycle = new ArrayList<>(path.subList(index, path.size()));
+                    cycle.add(current);
+                    return cycle;
                 }
+                path.add(current);
+                current = dependencySetExtends.get(current);
             }
+            acyclic.addAll(path);
         }
-        return 0;
+        return null;
+    }
+
+    private static String resolutionKey(List<UsagesAndDep> usagesAndDeps, Usage defaultUsage) {
+        var inputs = new ArrayList<String>();
+        inputs.add("defaultUsage:" + (defaultUsage == null ? "" : defaultUsage.value()));
+        for (var usagesAndDep : usagesAndDeps) {
+            inputs.add("dependency:" + usagesAndDep.coordinate + "\t" + usagesAndDep.usages.stream()
+                    .map(Usage::value)
+                    .collect(Collectors.joining(",")));
+        }
+        return Digests.sha256(inputs);
+    }
+
+    /*
+     * Everything besides the dependencies themselves that decides what a set resolves to.
+     */
+    private String resolutionEnvironment() throws IOException {
+        var inputs = new ArrayList<String>();
+        inputs.add("repositories:" + Digests.sha256(List.of(repositoriesFileContents())));
+        inputs.add("cache:" + cacheLayout().root().toAbsolutePath().normalize());
+        for (var layer : CacheLayers.of(readOnlyCaches()).layouts()) {
+            inputs.add("layer:" + layer.root());
+        }
+        inputs.add("offline:" + offline);
+        return Digests.sha256(inputs);
+    }
+
+    private static String dependencySetFingerprint(
+            String dependencySet,
+            List<UsagesAndDep> usagesAndDeps,
+            Usage defaultUsage,
+            Map<String, String> dependencySetExtends,
+            String environment
+    ) {
+        return Digests.sha256(List.of(
+                "extends:" + String.join(",", extendsChain(dependencySet, dependencySetExtends)),
+                "resolution:" + resolutionKey(usagesAndDeps, defaultUsage),
+                "environment:" + environment
+        ));
+    }
+
+    /*
+     * A set is up to date when it was last generated from the same inputs
+     * and every artifact it points to is still on disk.
+     */
+    private static boolean isDependencySetUpToDate(
+            Path dependencySetsPath,
+            String dependencySet,
+            String fingerprint
+    ) throws IOException {
+        var fingerprintFile = fingerprintFile(dependencySetsPath, dependencySet);
+        var argFile = dependencySetsPath.resolve(dependencySet);
+        if (!Files.isRegularFile(fingerprintFile)
+                || !Files.isRegularFile(argFile)
+                || !Files.readString(fingerprintFile).equals(fingerprint)) {
+            return false;
+        }
+
+        var lines = Files.readAllLines(argFile);
+        for (int i = 1; i < lines.size(); i += 2) {
+            for (var path : lines.get(i).split(File.pathSeparator)) {
+                if (!path.isEmpty() && !Files.exists(dependencySetsPath.toAbsolutePath().getParent().resolve(path))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void removeStaleDependencySets(
+            Path dependencySetsPath,
+            Set<String> dependencySets
+    ) throws IOException {
+        if (!Files.isDirectory(dependencySetsPath)) {
+            return;
+        }
+
+        var expected = new HashSet<Path>();
+        for (var dependencySet : dependencySets) {
+            expected.add(dependencySetsPath.resolve(dependencySet));
+            expected.add(fingerprintFile(dependencySetsPath, dependencySet));
+        }
+
+        try (var files = Files.list(dependencySetsPath)) {
+            for (var file : files.toList()) {
+                if (Files.isRegularFile(file) && !expected.contains(file)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private String installDependencySet(
+            Cache cache,
+            Repositories repositories,
+            List<UsagesAndDep> usagesAndDeps,
+            Usage defaultUsage
+    ) throws Exception {
+        var libraryToUsages = new LinkedHashMap<Library, Set<Usage>>();
+
+        var dependencies = new ArrayList<Dependency>();
+        for (var usagesAndDep : usagesAndDeps) {
+            libraryToUsages.put(usagesAndDep.dependency.library(), new LinkedHashSet<>(usagesAndDep.usages));
+            dependencies.add(usagesAndDep.dependency);
+        }
+
+        var resolution = resolve(cache, dependencies, repositories);
+
+        var librariesForUsage = resolution.librariesForUsage(
+                libraryToUsages,
+                defaultUsage
+        );
+
+        var fetch = metrics.measure("fetch", () -> {
+            prefetch(resolution.selectedDependencies(), repositories);
+            return resolution.fetch().withCache(cache).run();
+        });
+
+        fetch.libraries().values().forEach(cacheUsage()::use);
+
+        var args = new ArrayList<String>();
+        librariesForUsage.forEach(((usage, libraries) -> {
+            if (!libraries.isEmpty()) {
+                var libToPath = new LinkedHashMap<>(fetch.libraries());
+                libToPath.keySet().retainAll(libraries);
+                args.add(usage.value());
+                args.add(libToPath.values()
+                        .stream()
+                        .map(Path::toString)
+                        .collect(Collectors.joining(File.pathSeparator)));
+            }
+
+        }));
+
+        return String.join("\n", args);
+    }
+
+    /*
+     * Runs a command while its repository traffic is observed, writing
+     * the collected metrics afterwards if they were asked for.
+     */
+    private int measured(Callable<Integer> command) throws Exception {
+        var repositories = repositories();
+        try (var ignored = repositories.observe(metrics)) {
+            return command.call();
+        } catch (Exception e) {
+            var failed = DownloadFailedException.find(e).orElse(null);
+            if (failed != null) {
+                reportFailedDownloads(failed, repositories);
+                return 1;
+            }
+            var notCached = NotCachedException.find(e);
+            if (notCached.isEmpty()) {
+                throw e;
+            }
+            reportNotCached(notCached, repositories);
+            return 1;
+        } finally {
+            cacheIndex().save();
+            cacheUsage().save();
+            if (metricsFile != null) {
+                metrics.write(path(metricsFile));
+            }
+        }
+    }
+
+    /*
+     * Every run goes through the same session, so resolved metadata and the repositories
+     * stay warm between them. Metrics start over each time, so --metrics describes the latest.
+     */
+    private int watch(List<Path> inputs, Callable<Integer> command) throws Exception {
+        if (inputs.isEmpty()) {
+            err.println("Nothing to watch: --watch needs --dependency-file, --maven-repositories-file or a jproject.toml");
+            err.flush();
+            return 1;
+        }
+        return new Watch(inputs, err).run(() -> {
+            metrics = new Metrics();
+            try {
+                return measured(command);
+            } catch (Exception e) {
+                // Reported and waited out, since the next edit may well fix it
+                err.println(e.getMessage() == null ? e.toString() : e.getMessage());
+                err.flush();
+                return 1;
+            }
+        });
+    }
+
+    private void reportFailedDownloads(DownloadFailedException failed, Repositories repositories) {
+        err.println("Could not download:");
+        for (var failure : failed.failures()) {
+            err.println("  " + describe(failure.download().uri(), repositories));
+            err.println("    " + failure.reason());
+        }
+        err.flush();
+    }
+
+    private void reportNotCached(List<URI> uris, Repositories repositories) {
+        err.println("Running offline and not in the cache:");
+        uris.stream()
+                .map(uri -> describe(uri, repositories))
+                .distinct()
+                .sorted()
+                .forEach(missing -> err.println("  " + missing));
+        err.flush();
+    }
+
+    /*
+     * The package url of whatever artifact a url belongs to, or the url itself.
+     */
+    private static String describe(URI uri, Repositories repositories) {
+        return repositories.declarations()
+                .values()
+                .stream()
+                .flatMap(repository -> MavenArtifact.fromUri(repository, uri).stream())
+                .findFirst()
+                .map(MavenArtifact::packageUrl)
+                .orElse(uri.toString());
     }
 
     @Override
     public Integer call() throws Exception {
+        if (watch) {
+            var inputs = new ArrayList<Path>();
+            for (var dependencyFile : this.dependencyFile) {
+                inputs.add(path(dependencyFile));
+            }
+            if (mavenRepositoriesFile != null) {
+                inputs.add(path(mavenRepositoriesFile));
+            }
+            // Otherwise written by each run, which would set off the next
+            if (resolutionFile != null && select) {
+                inputs.add(path(resolutionFile));
+            }
+            return watch(inputs, this::resolveDependencies);
+        }
+        return measured(this::resolveDependencies);
+    }
+
+    private int resolveDependencies() throws Exception {
         var osName = System.getProperty("os.name")
                 .toLowerCase(Locale.US);
         var osArch = System.getProperty("os.arch")
@@ -318,48 +1302,25 @@ public final class CliMain implements Callable<Integer> {
 
 
         var dependencies = new ArrayList<Dependency>();
+        var dependencyLines = new ArrayList<String>();
 
 
-        var knownRepositories = new HashMap<String, MavenRepository>();
-        knownRepositories.put("central", MavenRepository.central());
-        knownRepositories.put("local", MavenRepository.local());
-
-        if (mavenRepositoriesFile != null) {
-            var repoDeclarations = JsonDecoder.object(
-                    Json.readString(Files.readString(mavenRepositoriesFile.toPath())),
-                    Repository::fromJson
-            );
-            repoDeclarations.forEach((name, value) ->
-                    knownRepositories.put(name, MavenRepository.remote(value.url(), () -> {
-                        var builder = HttpClient.newBuilder()
-                                .followRedirects(HttpClient.Redirect.NORMAL);
-                        value.authentication().ifPresent(authentication -> {
-                            builder.authenticator(new Authenticator() {
-                                @Override
-                                protected PasswordAuthentication getPasswordAuthentication() {
-                                    return new PasswordAuthentication(
-                                            authentication.username(),
-                                            authentication.password().toCharArray()
-                                    );
-                                }
-                            });
-                        });
-                        return builder.build();
-                    }))
-            );
-        }
+        var repositoriesFileContents = repositoriesFileContents();
+        var repositories = repositories();
+        var knownRepositories = repositories.mavenRepositories();
 
         String finalOsArch = osArch;
         Function<String, String> processLine = line -> {
             var subbedLine = line
                     .replace("{{os.name}}", osName)
                     .replace("{{os.arch}}", finalOsArch)
-                    .replace("{{user.dir}}", System.getProperty("user.dir"))
+                    .replace("{{user.dir}}", workingDirectory.toString())
                     .trim();
             if (!line.isBlank()) {
                 try {
                     var dependency = Dependency.fromCoordinate(subbedLine, knownRepositories);
                     dependencies.add(dependency);
+                    dependencyLines.add(subbedLine);
                 } catch (Exception e) {
                     return e.getMessage();
                 }
@@ -368,8 +1329,20 @@ public final class CliMain implements Callable<Integer> {
             return null;
         };
 
-        for (var dependencyFile : this.dependencyFile) {
-            for (var line : Files.readAllLines(dependencyFile.toPath())) {
+        try (var ignored = metrics.phase("parse")) {
+            for (var dependencyFile : this.dependencyFile) {
+                for (var line : Files.readAllLines(path(dependencyFile))) {
+                    var msg = processLine.apply(line);
+                    if (msg != null) {
+                        err.println("Invalid dependency declaration: " + line);
+                        err.println(msg);
+                        err.flush();
+                        return -1;
+                    }
+                }
+            }
+
+            for (var line : this.dependencies) {
                 var msg = processLine.apply(line);
                 if (msg != null) {
                     err.println("Invalid dependency declaration: " + line);
@@ -380,131 +1353,171 @@ public final class CliMain implements Callable<Integer> {
             }
         }
 
-        for (var line : this.dependencies) {
-            var msg = processLine.apply(line);
-            if (msg != null) {
-                err.println("Invalid dependency declaration: " + line);
-                err.println(msg);
-                err.flush();
-                return -1;
-            }
-        }
-
-
-        var cache = cachePath == null ? Cache.standard() : Cache.standard(cachePath.toPath());
 
-        var resolve = new Resolve().withCache(cache);
-        resolve.addDependencies(dependencies);
+        if (select && resolutionFile == null) {
+            err.println("--select requires a --resolution-file");
+            err.flush();
+            return 1;
+        }
 
-        var resolution = resolve.run();
+        // The tree and pom enrichment both need the full graph, so they never use the lockfile
+        var useLockfile = resolutionFile != null && !printTree && enrichPom == null;
+        String inputHash = null;
+        if (useLockfile) {
+            Lockfile usableLockfile = null;
+            try (var ignored = metrics.phase("lockfile")) {
+                inputHash = Lockfile.inputHash(dependencyLines, repositoriesFileContents);
+                var lockfile = Lockfile.read(path(resolutionFile)).orElse(null);
+                if (lockfile != null && lockfile.inputHash().equals(inputHash)) {
+                    if (!lockfile.isIntact(cacheLayout())) {
+                        fetchMissing(lockfile, repositories);
+                    }
+                    if (lockfile.isIntact(cacheLayout())) {
+                        usableLockfile = lockfile;
+                    }
+                }
+            }
 
-        if (printTree) {
-            resolution.printTree(out);
-            out.flush();
-            return 0;
-        }
+            if (usableLockfile != null) {
+                metrics.increment("lockfile.hits");
+                var lockfile = usableLockfile;
+                var paths = lockfile.paths(cacheLayout());
+                paths.forEach(cacheUsage()::hit);
+                return finish(lockfile.path(cacheLayout()), paths);
+            }
+            metrics.increment("lockfile.misses");
 
-        if (enrichPom != null) {
-            var pomContents = Files.readString(enrichPom.toPath());
-            var factory = DocumentBuilderFactory.newDefaultInstance();
-            Document document;
-            try {
-                document = factory
-                        .newDocumentBuilder()
-                        .parse(new InputSource(new StringReader(pomContents)));
-            } catch (SAXException | IOException e) {
-                err.println("Error parsing POM file: " + e.getMessage());
+            if (select) {
+                err.println("Resolution file is out of date: " + resolutionFile);
                 err.flush();
                 return 1;
             }
-            var rootElement = document.getDocumentElement();
+        }
 
-            Node dependenciesElement = null;
-            var rootElementChildren = rootElement.getChildNodes();
-            for (int i = 0; i < rootElementChildren.getLength(); i++) {
-                var projectElementChild = rootElementChildren.item(i);
-                if (projectElementChild.getNodeName().equals("dependencies")) {
-                    dependenciesElement = projectElementChild;
-                }
+        var cache = cache();
 
-            }
+        var resolution = resolve(cache, dependencies, repositories);
 
-            if (dependenciesElement == null) {
-                dependenciesElement = document.createElement("dependencies");
-                rootElement.appendChild(dependenciesElement);
+        if (printTree) {
+            try (var ignored = metrics.phase("print-tree")) {
+                var selectedVersions = new HashMap<String, String>();
+                for (var dependency : resolution.selectedDependencies()) {
+                    MavenArtifact.of(dependency.coordinate()).ifPresent(artifact ->
+                            selectedVersions.put(artifact.group() + ":" + artifact.artifact(), artifact.version()));
+                }
+                try (var renderer = new TreeRenderer(out, treeFormat, treeDepth, selectedVersions)) {
+                    var lines = new PrintWriter(renderer);
+                    resolution.printTree(lines);
+                    lines.flush();
+                }
             }
+            return 0;
+        }
 
-            var firstChild = dependenciesElement.getFirstChild();
-            while (firstChild != null) {
-                dependenciesElement.removeChild(firstChild);
-                firstChild = dependenciesElement.getFirstChild();
+        if (enrichPom != null) {
+            var status = metrics.measure("enrich-pom", () -> enrichPom(resolution.selectedDependencies()));
+            if (status != 0) {
+                return status;
             }
+        }
 
-            for (var dependency : resolution.selectedDependencies()) {
-                if (dependency.coordinate() instanceof MavenCoordinate mavenCoordinate) {
-                    var dependencyElement = document.createElement("dependency");
-
-                    var groupIdElement = document.createElement("groupId");
-                    groupIdElement.setTextContent(mavenCoordinate.group().value());
-                    dependencyElement.appendChild(groupIdElement);
-
-                    var artifactIdElement = document.createElement("artifactId");
-                    artifactIdElement.setTextContent(mavenCoordinate.artifact().value());
-                    dependencyElement.appendChild(artifactIdElement);
+        var deps = metrics.measure("fetch", () -> {
+            prefetch(resolution.selectedDependencies(), repositories);
+            return resolution.fetch().withCache(cache).run();
+        });
+
+        if (useLockfile) {
+            try (var ignored = metrics.phase("lockfile")) {
+                Lockfile.of(
+                        inputHash,
+                        deps.path(),
+                        deps.libraries(),
+                        resolution.selectedDependencies(),
+                        cacheLayout()
+                ).write(path(resolutionFile));
+            }
+        }
 
-                    var versionElement = document.createElement("version");
-                    versionElement.setTextContent(mavenCoordinate.version().toString());
-                    dependencyElement.appendChild(versionElement);
+        deps.libraries().values().forEach(cacheUsage()::use);
+        return finish(deps.path(), deps.libraries().values());
+    }
 
-                    dependenciesElement.appendChild(dependencyElement);
-                }
-            }
+    private int finish(String computedPath, Collection<Path> libraries) throws Exception {
+        var status = metrics.measure("output", () -> writeOutputs(computedPath, libraries));
+        if (status != 0 || cdsArchive == null) {
+            return status;
+        }
+        return metrics.measure("cds-archive", () -> emitCdsArchive(computedPath, libraries));
+    }
 
-            var transformerFactory = TransformerFactory.newDefaultInstance();
+    private int emitCdsArchive(String computedPath, Collection<Path> libraries) throws Exception {
+        if (mainClass == null) {
+            err.println("--emit-cds-archive needs a --main-class to train with");
+            err.flush();
+            return 1;
+        }
 
-            Transformer transformer = transformerFactory.newTransformer(new StreamSource(new ByteArrayInputStream("""
-                    <xsl:stylesheet version="1.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform">
-                      <xsl:output indent="yes"/>
-                      <xsl:strip-space elements="*"/>
-                    
-                      <xsl:template match="@*|node()">
-                        <xsl:copy>
-                          <xsl:apply-templates select="@*|node()"/>
-                        </xsl:copy>
-                      </xsl:template>
-                    
-                    </xsl:stylesheet>
-                    """.getBytes()
-            )));
-            transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        var cacheLayout = cacheLayout();
+        var sha256s = libraries.stream()
+                .map(library -> Checksums.sha256(library, cacheLayout))
+                .toList();
+        return CdsArchive.emit(
+                new CdsArchive.Options(
+                        path(cdsArchive),
+                        cdsJava == null ? CdsArchive.defaultJava() : path(cdsJava),
+                        mainClass,
+                        cdsTrainingArgs,
+                        Duration.parse(cdsTrainingTimeout)
+                ),
+                computedPath,
+                libraries,
+                sha256s,
+                err
+        );
+    }
 
-            // pretty print
+    private int enrichPom(Collection<? extends Dependency> selectedDependencies) throws Exception {
+        var pomContents = Files.readString(path(enrichPom));
+        var artifacts = selectedDependencies.stream()
+                .flatMap(dependency -> MavenArtifact.of(dependency.coordinate()).stream())
+                .toList();
+
+        String enriched;
+        try {
+            enriched = PomEnricher.enrich(pomContents, artifacts);
+        } catch (XMLStreamException e) {
+            err.println("Error parsing POM file: " + e.getMessage());
+            err.flush();
+            return 1;
+        }
 
-            DOMSource source = new DOMSource(document);
-            try (var os = Files.newOutputStream(enrichPom.toPath())) {
-                transformer.transform(source, new StreamResult(os));
-            }
+        // Left alone when nothing changed, so its modification time doesn't trigger rebuilds
+        if (!enriched.equals(pomContents)) {
+            AtomicFiles.writeString(path(enrichPom), enriched);
         }
 
-        var deps = resolution.fetch().withCache(cache).run();
+        return 0;
+    }
 
+    private int writeOutputs(String computedPath, Collection<Path> libraries) throws IOException {
         if (outputFile != null) {
-            if (outputFile.toPath().getParent() != null) {
-                Files.createDirectories(outputFile.toPath().getParent());
+            if (path(outputFile).getParent() != null) {
+                Files.createDirectories(path(outputFile).getParent());
             }
         }
 
-        if ((outputDirectory == null && enrichPom == null) || outputFile != null) {
-            try (var outActual = outputFile == null ? out : new PrintWriter(outputFile)) {
-                outActual.println(deps.path());
-            }
+        if (outputFile != null) {
+            // Never seen half written by whatever reads it, which matters most with --watch
+            AtomicFiles.writeString(path(outputFile), computedPath + System.lineSeparator());
+        } else if (outputDirectory == null && enrichPom == null) {
+            // Not closed, since with --watch there are more runs to print
+            out.println(computedPath);
+            out.flush();
         }
 
         if (outputDirectory != null && purgeOutputDirectory) {
             try {
-                Files.walkFileTree(outputDirectory.toPath(), new SimpleFileVisitor<>() {
+                Files.walkFileTree(path(outputDirectory), new SimpleFileVisitor<>() {
                     @Override
                     public FileVisitResult visitFile(Path file,
                                                      BasicFileAttributes attrs) throws IOException {
@@ -530,37 +1543,47 @@ public final class CliMain implements Callable<Integer> {
 
         }
 
-        if (outputDirectory != null && (!deps.libraries().isEmpty())) {
-            Files.createDirectories(outputDirectory.toPath());
+        if (outputDirectory != null && (!libraries.isEmpty() || syncOutputDirectory)) {
 
 
             var artifacts = new LinkedHashMap<String, Path>();
 
+            Map<Path, List<String>> moduleNames;
+            if (useModuleNames) {
+                var moduleNameIndex = session.moduleNameIndex(
+                        cacheLayout().root().resolve("module-names.json")
+                );
+                try {
+                    moduleNames = moduleNameIndex.moduleNames(libraries);
+                    moduleNameIndex.save();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            } else {
+                moduleNames = Map.of();
+            }
+
             Function<Path, Integer> addPath = (path) -> {
                 if (useModuleNames) {
-                    var modules = ModuleFinder.of(path).findAll().toArray(ModuleReference[]::new);
-                    if (modules.length == 0) {
+                    var modules = moduleNames.get(path);
+                    if (modules.isEmpty()) {
                         err.println("No module found: " + path);
                         err.flush();
                         return 1;
                     }
-                    if (modules.length > 1) {
+                    if (modules.size() > 1) {
                         err.println("More than one module found: " + path);
-                        err.println(
-                                Arrays.stream(modules)
-                                        .map(ModuleReference::descriptor)
-                                        .map(ModuleDescriptor::name)
-                                        .collect(Collectors.joining(", "))
-                        );
+                        err.println(String.join(", ", modules));
                         err.flush();
                         return 1;
                     }
 
-                    var module = modules[0];
+                    var module = modules.get(0);
 
-                    var fileName = module.descriptor().name() + ".jar";
+                    var fileName = module + ".jar";
                     if (artifacts.containsKey(fileName)) {
-                        err.println("Duplicate module: " + module.descriptor().name());
+                        err.println("Duplicate module: " + module);
                         err.flush();
                         return 1;
                     }
@@ -571,7 +1594,9 @@ public final class CliMain implements Callable<Integer> {
                     if (artifacts.containsKey(fileName)) {
                         err.println("Duplicate file: " + fileName + ". Need to rename.");
                         err.flush();
-                        fileName = UUID.randomUUID() + "-" + fileName;
+                        // Derived from the source so repeated runs pick the same name
+                        fileName = Digests.sha256(List.of(path.toAbsolutePath().toString())).substring(0, 8)
+                                + "-" + fileName;
                     }
                     artifacts.put(fileName, path);
                 }
@@ -579,27 +1604,18 @@ public final class CliMain implements Callable<Integer> {
                 return 0;
             };
 
-            for (var path : deps.libraries().values()) {
-                int status = addPath.apply(path);
+            for (var library : libraries) {
+                int status = addPath.apply(library);
                 if (status != 0) {
                     return status;
                 }
             }
 
-            artifacts.forEach((fileName, path) -> {
-                try {
-                    Files.copy(
-                            path,
-                            Path.of(outputDirectory.toString(), fileName),
-                            StandardCopyOption.REPLACE_EXISTING
-                    );
-                } catch (IOException e) {
-                    err.println("Could not copy file: " + path);
-                    err.flush();
-                    throw new UncheckedIOException(e);
-                }
-
-            });
+            var result = new OutputDirectory(path(outputDirectory), cacheLayout(), linkMode, syncOutputDirectory, err)
+                    .populate(artifacts);
+            metrics.add("artifacts." + (linkMode == LinkMode.copy ? "copied" : "linked"), result.written());
+            metrics.add("artifacts.unchanged", result.skipped());
+            metrics.add("artifacts.removed", result.removed());
         }
 
         return 0;
@@ -0,0 +1,91 @@
+package dev.mccue.resolve.cli;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Artifacts in the cache stored once per distinct content.
+ *
+ * <p>Every artifact downloaded while this is in use is hard linked to
+ * {@code .cas/sha256/ab/abcd...} under the cache root. When another artifact turns out to have
+ * the same SHA-256, whether from another repository or republished under other coordinates, it
+ * is linked to the existing file instead of being kept as a second copy. If the repository
+ * publishes a SHA-256 up front, the download is skipped entirely.
+ *
+ * <p>An entry nothing else links to any more is removed by {@code cache gc}.
+ */
+final class ContentStore {
+    private final Path root;
+
+    ContentStore(CacheLayout layout) {
+        this.root = root(layout);
+    }
+
+    static Path root(CacheLayout layout) {
+        return layout.root().toAbsolutePath().normalize().resolve(".cas");
+    }
+
+    Path pathOf(String sha256) {
+        return root.resolve("sha256").resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    Optional<Path> find(String sha256) {
+        var path = pathOf(sha256);
+        return Files.isRegularFile(path) ? Optional.of(path) : Optional.empty();
+    }
+
+    /**
+     * Links the stored file with the given SHA-256 to the target, returning false if
+     * there isn't one or it could not be linked.
+     */
+    boolean link(String sha256, Path target) throws IOException {
+        var stored = find(sha256).orElse(null);
+        if (stored == null) {
+            return false;
+        }
+
+        Files.createDirectories(target.getParent());
+        var temp = target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".part");
+        try {
+            Files.createLink(temp, stored);
+            AtomicFiles.move(temp, target);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Puts the file with the given SHA-256 at the target, taking it from the store if it is
+     * already there and adding it to the store otherwise. Returns true if the file came from
+     * the store, in which case the given file was not needed.
+     *
+     * <p>The file should not yet be visible at the target, since it may be replaced.
+     */
+    boolean place(Path file, String sha256, Path target) throws IOException {
+        if (link(sha256, target)) {
+            return true;
+        }
+
+        AtomicFiles.move(file, target);
+        if (find(sha256).isEmpty()) {
+            var path = pathOf(sha256);
+            var temp = path.resolveSibling("." + sha256 + "." + UUID.randomUUID() + ".part");
+            try {
+                Files.createDirectories(path.getParent());
+                Files.createLink(temp, target);
+                AtomicFiles.move(temp, path);
+            } catch (IOException | UnsupportedOperationException e) {
+                // Not deduplicated, but nothing is wrong with the cache
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return false;
+    }
+}
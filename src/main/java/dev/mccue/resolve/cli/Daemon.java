@@ -0,0 +1,271 @@
+package dev.mccue.resolve.cli;
+
+import picocli.CommandLine;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long running process that runs commands on behalf of {@link DaemonClient}s.
+ *
+ * <p>Every command shares one {@link Session}, so parsed repository declarations, HTTP
+ * connections, module name indexes and resolutions of released versions stay warm between
+ * invocations.
+ *
+ * <p>Only the user running the daemon can connect to its socket.
+ *
+ * <p>The protocol over the socket is deliberately small. The client sends the protocol
+ * version, the {@link #ENVIRONMENT} it sees, its working directory and its arguments. The daemon
+ * answers with a stream of frames, each a type byte followed by a length prefixed payload,
+ * ending in an exit frame.
+ *
+ * <p>Commands read those environment variables from the daemon's own environment, so a client
+ * whose values differ is sent a refused frame instead and runs the command itself.
+ */
+final class Daemon {
+    static final int PROTOCOL_VERSION = 2;
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+    static final byte EXIT = 3;
+    static final byte REFUSED = 4;
+
+    /**
+     * Environment variables that change what a command does.
+     */
+    static final List<String> ENVIRONMENT = List.of("JAVA_HOME", "JRESOLVE_CACHE_MAX_SIZE");
+
+    private final Path socket;
+    private final Duration idleTimeout;
+    private final PrintWriter err;
+    private final Session session = new Session();
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile long lastActivity = System.nanoTime();
+
+    Daemon(Path socket, Duration idleTimeout, PrintWriter err) {
+        this.socket = socket;
+        this.idleTimeout = idleTimeout;
+        this.err = err;
+    }
+
+    static Path defaultSocket() {
+        return Path.of(System.getProperty("user.home"), ".jresolve", "daemon.sock");
+    }
+
+    int run() throws IOException {
+        if (Files.exists(socket)) {
+            try (var ignored = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+                err.println("A daemon is already listening on " + socket);
+                err.flush();
+                return 1;
+            } catch (IOException e) {
+                // Left behind by a daemon that didn't shut down cleanly
+                Files.delete(socket);
+            }
+        }
+
+        if (socket.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(socket.toAbsolutePath().getParent());
+        }
+
+        try (var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            bindPrivately(server);
+            err.println("Listening on " + socket);
+            err.flush();
+
+            var watchdog = Thread.ofVirtual().start(() -> shutDownWhenIdle(server));
+            try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                while (true) {
+                    SocketChannel channel;
+                    try {
+                        channel = server.accept();
+                    } catch (ClosedChannelException e) {
+                        break;
+                    }
+
+                    active.incrementAndGet();
+                    executor.submit(() -> {
+                        try (channel) {
+                            handle(channel);
+                        } finally {
+                            lastActivity = System.nanoTime();
+                            active.decrementAndGet();
+                        }
+                        return null;
+                    });
+                }
+            } finally {
+                watchdog.interrupt();
+            }
+        } finally {
+            Files.deleteIfExists(socket);
+        }
+
+        err.println("Shut down after " + idleTimeout + " without requests");
+        err.flush();
+        return 0;
+    }
+
+    /*
+     * Anyone who can connect can run commands as this user, so only this user may. The socket
+     * is bound in a directory only this user can enter and made owner only before it is moved
+     * to where clients look for it, so there is never a moment anyone else could connect.
+     *
+     * File systems without POSIX permissions get the socket bound where it is.
+     */
+    private void bindPrivately(ServerSocketChannel server) throws IOException {
+        var directory = socket.toAbsolutePath().getParent();
+        if (directory == null || !directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            return;
+        }
+
+        var staging = Files.createTempDirectory(
+                directory,
+                ".daemon-",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"))
+        );
+        try {
+            var staged = staging.resolve(socket.getFileName());
+            server.bind(UnixDomainSocketAddress.of(staged));
+            Files.setPosixFilePermissions(staged, PosixFilePermissions.fromString("rw-------"));
+            Files.move(staged, socket, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(staging.resolve(socket.getFileName()));
+            Files.deleteIfExists(staging);
+        }
+    }
+
+    private void shutDownWhenIdle(ServerSocketChannel server) {
+        try {
+            while (true) {
+                Thread.sleep(Math.min(idleTimeout.toMillis(), 1000));
+                var idle = Duration.ofNanos(System.nanoTime() - lastActivity);
+                if (active.get() == 0 && idle.compareTo(idleTimeout) >= 0) {
+                    server.close();
+                    return;
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            // Daemon is already shutting down
+        }
+    }
+
+    private void handle(SocketChannel channel) throws IOException {
+        var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        var frames = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+        var version = in.readInt();
+        var stdout = new PrintWriter(new FrameWriter(frames, STDOUT));
+        var stderr = new PrintWriter(new FrameWriter(frames, STDERR));
+        int exitCode;
+        if (version != PROTOCOL_VERSION) {
+            stderr.println("Daemon speaks protocol version " + PROTOCOL_VERSION + ", client sent " + version);
+            exitCode = 1;
+        } else {
+            var mismatched = new ArrayList<String>();
+            var variables = in.readInt();
+            for (int i = 0; i < variables; i++) {
+                var name = readString(in);
+                var value = in.readBoolean() ? readString(in) : null;
+                if (!Objects.equals(value, System.getenv(name))) {
+                    mismatched.add(name);
+                }
+            }
+            if (!mismatched.isEmpty()) {
+                err.println("Refused a client with a different " + String.join(", ", mismatched));
+                err.flush();
+                synchronized (frames) {
+                    frames.writeByte(REFUSED);
+                    frames.flush();
+                }
+                return;
+            }
+
+            var workingDirectory = Path.of(readString(in));
+            var args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = readString(in);
+            }
+
+            exitCode = new CommandLine(new CliMain(stdout, stderr, workingDirectory, session))
+                    .setOut(stdout)
+                    .setErr(stderr)
+                    .execute(args);
+        }
+
+        stdout.flush();
+        stderr.flush();
+        synchronized (frames) {
+            frames.writeByte(EXIT);
+            frames.writeInt(exitCode);
+            frames.flush();
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        var bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /*
+     * Commands close their output writers when they are done with them,
+     * which must not close the connection out from under the exit frame.
+     */
+    private static final class FrameWriter extends Writer {
+        private final DataOutputStream frames;
+        private final byte type;
+
+        FrameWriter(DataOutputStream frames, byte type) {
+            this.frames = frames;
+            this.type = type;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            var bytes = new String(chars, offset, length).getBytes(StandardCharsets.UTF_8);
+            synchronized (frames) {
+                frames.writeByte(type);
+                frames.writeInt(bytes.length);
+                frames.write(bytes);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (frames) {
+                frames.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package dev.mccue.resolve.cli;
+
+import java.io.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.OptionalInt;
+
+/**
+ * Forwards an invocation to a running {@link Daemon}.
+ */
+final class DaemonClient {
+    private DaemonClient() {}
+
+    /**
+     * @return The exit code of the command, or empty if no daemon could be reached, or it
+     * refused because this environment differs from its own, and the command should run in
+     * this process instead.
+     */
+    static OptionalInt run(
+            Path socket,
+            Path workingDirectory,
+            String[] args,
+            OutputStream stdout,
+            OutputStream stderr
+    ) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException | UnsupportedOperationException e) {
+            return OptionalInt.empty();
+        }
+
+        try (channel) {
+            var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(Daemon.PROTOCOL_VERSION);
+            out.writeInt(Daemon.ENVIRONMENT.size());
+            for (var name : Daemon.ENVIRONMENT) {
+                Daemon.writeString(out, name);
+                var value = System.getenv(name);
+                out.writeBoolean(value != null);
+                if (value != null) {
+                    Daemon.writeString(out, value);
+                }
+            }
+            Daemon.writeString(out, workingDirectory.toString());
+            out.writeInt(args.length);
+            for (var arg : args) {
+                Daemon.writeString(out, arg);
+            }
+            out.flush();
+
+            var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            while (true) {
+                var type = in.readByte();
+                if (type == Daemon.REFUSED) {
+                    // Nothing has run yet
+                    return OptionalInt.empty();
+                }
+                if (type == Daemon.EXIT) {
+                    stdout.flush();
+                    stderr.flush();
+                    return OptionalInt.of(in.readInt());
+                }
+
+                var bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                (type == Daemon.STDOUT ? stdout : stderr).write(bytes);
+            }
+        } catch (IOException e) {
+            // The command may have had side effects already, so it isn't retried locally
+            try {
+                stderr.write(("Lost connection to jresolve daemon: " + e.getMessage() + System.lineSeparator()).getBytes());
+                stderr.flush();
+            } catch (IOException ignored) {
+            }
+            return OptionalInt.of(1);
+        }
+    }
+}
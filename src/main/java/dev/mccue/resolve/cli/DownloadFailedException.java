@@ -0,0 +1,35 @@
+package dev.mccue.resolve.cli;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Thrown when artifacts could not be downloaded, after retrying, or did not match their
+ * checksums. Unlike other failed downloads, these are not left for the resolver to try again.
+ */
+final class DownloadFailedException extends IOException {
+    private final List<ArtifactDownloader.Failure> failures;
+
+    DownloadFailedException(List<ArtifactDownloader.Failure> failures) {
+        super("Could not download: " + failures.stream().map(failure -> failure.download().uri()).toList());
+        this.failures = List.copyOf(failures);
+    }
+
+    List<ArtifactDownloader.Failure> failures() {
+        return failures;
+    }
+
+    static Optional<DownloadFailedException> find(Throwable throwable) {
+        var seen = new ArrayList<Throwable>();
+        while (throwable != null && !seen.contains(throwable)) {
+            if (throwable instanceof DownloadFailedException failed) {
+                return Optional.of(failed);
+            }
+            seen.add(throwable);
+            throwable = throwable.getCause();
+        }
+        return Optional.empty();
+    }
+}
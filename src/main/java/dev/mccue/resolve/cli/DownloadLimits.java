@@ -0,0 +1,31 @@
+package dev.mccue.resolve.cli;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * How many artifacts may be downloading at once, overall and from any one host.
+ *
+ * <p>Every {@link ArtifactDownloader} made from the same {@link Session} with the same fetch
+ * options takes its permits from here, so resolutions running side by side, as in a batch or a
+ * cache prefetch, stay within the limits together instead of each being allowed the full amount.
+ */
+final class DownloadLimits {
+    private final Semaphore global;
+    private final int perHostParallelism;
+    private final Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+
+    DownloadLimits(int parallelism, int perHostParallelism) {
+        this.global = new Semaphore(Math.max(1, parallelism));
+        this.perHostParallelism = Math.max(1, perHostParallelism);
+    }
+
+    Semaphore global() {
+        return global;
+    }
+
+    Semaphore host(String host) {
+        return hosts.computeIfAbsent(host, k -> new Semaphore(perHostParallelism));
+    }
+}
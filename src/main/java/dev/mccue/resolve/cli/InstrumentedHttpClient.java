@@ -0,0 +1,162 @@
+package dev.mccue.resolve.cli;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reports every request to whichever {@link Metrics} are currently observing.
+ *
+ * <p>Latency is measured until the response headers arrive. Bytes are counted as the
+ * body is consumed and reported once it has been fully read. A request that fails, before or
+ * after the headers arrive, is reported as a failure with the time until it failed.
+ */
+final class InstrumentedHttpClient extends ForwardingHttpClient {
+    private final List<Metrics> observers;
+
+    InstrumentedHttpClient(HttpClient delegate, CopyOnWriteArrayList<Metrics> observers) {
+        super(delegate);
+        this.observers = observers;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> responseBodyHandler
+    ) throws IOException, InterruptedException {
+        var recorder = new Recorder(request.uri());
+        try {
+            return delegate.send(request, recorder.wrap(responseBodyHandler));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            recorder.finish(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> responseBodyHandler
+    ) {
+        var recorder = new Recorder(request.uri());
+        return recorder.watch(delegate.sendAsync(request, recorder.wrap(responseBodyHandler)));
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> responseBodyHandler,
+            HttpResponse.PushPromiseHandler<T> pushPromiseHandler
+    ) {
+        var recorder = new Recorder(request.uri());
+        return recorder.watch(delegate.sendAsync(request, recorder.wrap(responseBodyHandler), pushPromiseHandler));
+    }
+
+    private final class Recorder {
+        private final URI uri;
+        private final long start = System.nanoTime();
+        private final RepositoryRequestEvent event = new RepositoryRequestEvent();
+        private final LongAdder bytes = new LongAdder();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile long latency = -1;
+        private volatile int status;
+
+        Recorder(URI uri) {
+            this.uri = uri;
+            event.begin();
+        }
+
+        <T> HttpResponse.BodyHandler<T> wrap(HttpResponse.BodyHandler<T> handler) {
+            return responseInfo -> {
+                latency = System.nanoTime() - start;
+                status = responseInfo.statusCode();
+                return new CountingSubscriber<>(handler.apply(responseInfo), this);
+            };
+        }
+
+        <T> CompletableFuture<HttpResponse<T>> watch(CompletableFuture<HttpResponse<T>> response) {
+            response.whenComplete((ignored, failure) -> {
+                if (failure != null) {
+                    finish(failure instanceof CompletionException && failure.getCause() != null
+                            ? failure.getCause()
+                            : failure);
+                }
+            });
+            return response;
+        }
+
+        /*
+         * Called when the body has been read or when the request failed, whichever comes first.
+         * A body that fails part way through reaches here both through its subscriber and through
+         * the exception from send, but is only reported once.
+         */
+        void finish(Throwable failure) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            var host = Objects.requireNonNullElse(uri.getHost(), uri.getScheme());
+            var elapsed = latency < 0 ? System.nanoTime() - start : latency;
+            for (var metrics : observers) {
+                metrics.recordRequest(host, elapsed, bytes.sum(), failure != null);
+            }
+            event.host = host;
+            event.uri = uri.toString();
+            event.status = status;
+            event.bytes = bytes.sum();
+            event.failure = failure == null ? null : failure.toString();
+            event.commit();
+        }
+    }
+
+    private static final class CountingSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> delegate;
+        private final Recorder recorder;
+
+        CountingSubscriber(HttpResponse.BodySubscriber<T> delegate, Recorder recorder) {
+            this.delegate = delegate;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            delegate.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            for (var buffer : item) {
+                recorder.bytes.add(buffer.remaining());
+            }
+            delegate.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            recorder.finish(throwable);
+            delegate.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            recorder.finish(null);
+            delegate.onComplete();
+        }
+    }
+}
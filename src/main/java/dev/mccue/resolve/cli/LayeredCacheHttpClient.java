@@ -0,0 +1,299 @@
+package dev.mccue.resolve.cli;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers requests for anything in a read-only cache layer from disk.
+ *
+ * <p>The resolver writes what it fetches into the writable cache, so serving a file from a
+ * layer here is what gets it copied there without a download.
+ *
+ * <p>Files are streamed from disk a chunk at a time, and a {@code Range} request for the rest
+ * of a file, as a resumed download sends, is answered with just that part.
+ *
+ * <p>Files that can change upstream, like snapshots and {@code maven-metadata.xml}, always go
+ * to the repository, as do conditional requests, since a layer only knows what those files
+ * were when it was made.
+ */
+final class LayeredCacheHttpClient extends ForwardingHttpClient {
+    private final CacheLayers layers;
+
+    LayeredCacheHttpClient(HttpClient delegate, CacheLayers layers) {
+        super(delegate);
+        this.layers = layers;
+    }
+
+    private Optional<Path> layered(HttpRequest request) {
+        if (!request.method().equals("GET")
+                || request.headers().firstValue("If-None-Match").isPresent()
+                || request.headers().firstValue("If-Modified-Since").isPresent()
+                || isMutable(request.uri())) {
+            return Optional.empty();
+        }
+        return layers.find(request.uri());
+    }
+
+    /*
+     * Checksums of these files are as mutable as the files themselves.
+     */
+    static boolean isMutable(URI uri) {
+        var path = uri.getPath();
+        return path.contains("/maven-metadata") || path.contains("-SNAPSHOT/");
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> responseBodyHandler
+    ) throws IOException, InterruptedException {
+        var file = layered(request).orElse(null);
+        if (file == null) {
+            return delegate.send(request, responseBodyHandler);
+        }
+        return respond(request, responseBodyHandler, file);
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> responseBodyHandler
+    ) {
+        var file = layered(request).orElse(null);
+        if (file == null) {
+            return delegate.sendAsync(request, responseBodyHandler);
+        }
+        return respondAsync(request, responseBodyHandler, file);
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> responseBodyHandler,
+            HttpResponse.PushPromiseHandler<T> pushPromiseHandler
+    ) {
+        var file = layered(request).orElse(null);
+        if (file == null) {
+            return delegate.sendAsync(request, responseBodyHandler, pushPromiseHandler);
+        }
+        return respondAsync(request, responseBodyHandler, file);
+    }
+
+    private static <T> CompletableFuture<HttpResponse<T>> respondAsync(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> responseBodyHandler,
+            Path file
+    ) {
+        try {
+            return CompletableFuture.completedFuture(respond(request, responseBodyHandler, file));
+        } catch (IOException | InterruptedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static <T> HttpResponse<T> respond(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> responseBodyHandler,
+            Path file
+    ) throws IOException, InterruptedException {
+        var size = Files.size(file);
+        var offset = rangeStart(request);
+        int status;
+        Map<String, List<String>> headerValues;
+        if (offset >= size && offset > 0) {
+            status = 416;
+            headerValues = Map.of(
+                    "content-length", List.of("0"),
+                    "content-range", List.of("bytes */" + size)
+            );
+        } else if (offset > 0) {
+            status = 206;
+            headerValues = Map.of(
+                    "content-length", List.of(Long.toString(size - offset)),
+                    "content-range", List.of("bytes " + offset + "-" + (size - 1) + "/" + size)
+            );
+        } else {
+            status = 200;
+            headerValues = Map.of("content-length", List.of(Long.toString(size)));
+        }
+        var headers = HttpHeaders.of(headerValues, (name, value) -> true);
+        var subscriber = responseBodyHandler.apply(new HttpResponse.ResponseInfo() {
+            @Override
+            public int statusCode() {
+                return status;
+            }
+
+            @Override
+            public HttpHeaders headers() {
+                return headers;
+            }
+
+            @Override
+            public HttpClient.Version version() {
+                return HttpClient.Version.HTTP_1_1;
+            }
+        });
+
+        var channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            channel.position(status == 416 ? size : offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        subscriber.onSubscribe(new FileSubscription(channel, subscriber));
+
+        T body;
+        try {
+            body = subscriber.getBody().toCompletableFuture().get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        return new LayeredResponse<>(request, status, headers, body);
+    }
+
+    /*
+     * The first byte asked for by a "Range: bytes=N-" or "bytes=N-M" header, or 0 when there
+     * is none or it asks for something else, in which case the whole file is the answer.
+     * Anything after the first byte is always sent, which a range request has to accept.
+     */
+    private static long rangeStart(HttpRequest request) {
+        var range = request.headers().firstValue("Range").orElse(null);
+        if (range == null || !range.startsWith("bytes=") || range.contains(",")) {
+            return 0;
+        }
+        var dash = range.indexOf('-');
+        if (dash <= "bytes=".length()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(range.substring("bytes=".length(), dash).strip());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /*
+     * Reads the file a chunk at a time as the subscriber asks for it, so a large jar is never
+     * held in memory whole. Whichever thread asks for more does the reading, and only one at
+     * a time, since a subscriber may ask for more from inside onNext.
+     */
+    private static final class FileSubscription implements Flow.Subscription {
+        private static final int CHUNK = 64 * 1024;
+
+        private final FileChannel channel;
+        private final Flow.Subscriber<List<ByteBuffer>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean done = false;
+
+        FileSubscription(FileChannel channel, Flow.Subscriber<List<ByteBuffer>> subscriber) {
+            this.channel = channel;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (done) {
+                return;
+            }
+            if (n <= 0) {
+                finish(new IllegalArgumentException("non-positive request: " + n));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            if (pending.getAndIncrement() != 0) {
+                // Already being drained, and that will see the new demand
+                return;
+            }
+            do {
+                while (!done && demand.get() > 0) {
+                    try {
+                        var buffer = ByteBuffer.allocate(CHUNK);
+                        if (channel.read(buffer) < 0) {
+                            finish(null);
+                            return;
+                        }
+                        demand.decrementAndGet();
+                        subscriber.onNext(List.of(buffer.flip()));
+                    } catch (IOException e) {
+                        finish(e);
+                        return;
+                    }
+                }
+            } while (pending.decrementAndGet() != 0);
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+            close();
+        }
+
+        private void finish(Throwable failure) {
+            if (done) {
+                return;
+            }
+            done = true;
+            close();
+            if (failure == null) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError(failure);
+            }
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing more is read from it either way
+            }
+        }
+    }
+
+    private record LayeredResponse<T>(
+            HttpRequest request,
+            int statusCode,
+            HttpHeaders headers,
+            T body
+    ) implements HttpResponse<T> {
+        @Override
+        public Optional<HttpResponse<T>> previousResponse() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return Optional.empty();
+        }
+
+        @Override
+        public URI uri() {
+            return request.uri();
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return HttpClient.Version.HTTP_1_1;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package dev.mccue.resolve.cli;
+
+/**
+ * How artifacts are placed into an output directory.
+ */
+public enum LinkMode {
+    copy,
+    hardlink,
+    symlink,
+    reflink
+}
@@ -0,0 +1,76 @@
+package dev.mccue.resolve.cli;
+
+import dev.mccue.json.Json;
+import dev.mccue.json.JsonDecoder;
+import dev.mccue.json.JsonEncodable;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+record LockedArtifact(
+        String library,
+        Optional<MavenArtifact> maven,
+        Optional<URI> source,
+        Path path,
+        long size,
+        String sha256
+) implements JsonEncodable {
+    static LockedArtifact fromJson(Json json) {
+        return new LockedArtifact(
+                JsonDecoder.field(json, "library", JsonDecoder::string),
+                JsonDecoder.optionalField(json, "maven", MavenArtifact::fromJson),
+                JsonDecoder.optionalField(json, "source", JsonDecoder.string().map(URI::create)),
+                JsonDecoder.field(json, "path", JsonDecoder.string().map(Path::of)),
+                JsonDecoder.field(json, "size", JsonDecoder::long_),
+                JsonDecoder.field(json, "sha256", JsonDecoder::string)
+        );
+    }
+
+    @Override
+    public Json toJson() {
+        var builder = Json.objectBuilder()
+                .put("library", Json.of(library));
+        maven.ifPresent(maven -> builder.put("maven", maven));
+        source.ifPresent(source -> builder.put("source", Json.of(source.toString())));
+        return builder
+                .put("path", Json.of(path.toString()))
+                .put("size", Json.of(size))
+                .put("sha256", Json.of(sha256))
+                .build();
+    }
+
+    /**
+     * Where the artifact is, given the cache its path was recorded relative to.
+     */
+    Path path(CacheLayout cacheLayout) {
+        return cacheLayout.root().resolve(path);
+    }
+
+    /*
+     * Whether the artifact is still where the lockfile says it is, with the contents it had.
+     * In the cache that is checked against the SHA-256 kept beside it, so the file is only
+     * hashed when that was lost. Anything outside the cache is only checked by size, since
+     * hashing it would cost as much on every run.
+     */
+    boolean isPresent(CacheLayout cacheLayout) {
+        var file = path(cacheLayout);
+        try {
+            if (!Files.isRegularFile(file) || Files.size(file) != size) {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        if (path.isAbsolute()) {
+            return true;
+        }
+        try {
+            return Checksums.sha256(file, cacheLayout).equals(sha256);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+}
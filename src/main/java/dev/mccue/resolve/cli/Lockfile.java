@@ -0,0 +1,152 @@
+package dev.mccue.resolve.cli;
+
+import dev.mccue.json.Json;
+import dev.mccue.json.JsonDecoder;
+import dev.mccue.json.JsonEncodable;
+import dev.mccue.resolve.Dependency;
+import dev.mccue.resolve.Library;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The persisted result of a resolution, keyed by a hash of everything that went into it.
+ *
+ * <p>When the hash of the current inputs matches {@link #inputHash()}, the recorded
+ * artifacts can be used directly without walking the dependency graph again.
+ *
+ * <p>Paths of artifacts in the cache are recorded relative to its root, so a lockfile stays
+ * usable when it is checked in and used with a cache somewhere else. Anything outside the
+ * cache is recorded as an absolute path.
+ */
+record Lockfile(
+        int version,
+        String inputHash,
+        String path,
+        List<LockedArtifact> artifacts
+) implements JsonEncodable {
+    static final int CURRENT_VERSION = 3;
+
+    static Lockfile fromJson(Json json) {
+        return new Lockfile(
+                JsonDecoder.field(json, "version", JsonDecoder::int_),
+                JsonDecoder.field(json, "inputHash", JsonDecoder::string),
+                JsonDecoder.field(json, "path", JsonDecoder::string),
+                JsonDecoder.field(json, "artifacts", JsonDecoder.array(LockedArtifact::fromJson))
+        );
+    }
+
+    @Override
+    public Json toJson() {
+        var artifactsJson = Json.arrayBuilder();
+        artifacts.forEach(artifactsJson::add);
+        return Json.objectBuilder()
+                .put("version", Json.of(version))
+                .put("inputHash", Json.of(inputHash))
+                .put("path", Json.of(path))
+                .put("artifacts", artifactsJson.build())
+                .build();
+    }
+
+    static Optional<Lockfile> read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try {
+            var lockfile = fromJson(Json.readString(Files.readString(file)));
+            if (lockfile.version() != CURRENT_VERSION) {
+                return Optional.empty();
+            }
+            return Optional.of(lockfile);
+        } catch (RuntimeException e) {
+            // An unreadable lockfile is just a stale one
+            return Optional.empty();
+        }
+    }
+
+    void write(Path file) throws IOException {
+        AtomicFiles.writeString(file, Json.writeString(this));
+    }
+
+    /**
+     * Where the cache is doesn't change what the dependencies resolve to, so it isn't part of
+     * the hash. The order they are declared in is, since the recorded path follows it and
+     * which jar comes first decides which one shadows the other.
+     */
+    static String inputHash(List<String> dependencyLines, String repositoriesFile) {
+        var inputs = new ArrayList<String>();
+        inputs.add("jresolve-lockfile-v" + CURRENT_VERSION);
+        inputs.add("repositories:" + repositoriesFile);
+        inputs.add("dependencies:" + dependencyLines.size());
+        dependencyLines.stream()
+                .map(String::strip)
+                .forEach(inputs::add);
+        return Digests.sha256(inputs);
+    }
+
+    static Lockfile of(
+            String inputHash,
+            String path,
+            Map<Library, Path> libraries,
+            Collection<? extends Dependency> selectedDependencies,
+            CacheLayout cacheLayout
+    ) {
+        var coordinates = new HashMap<Library, MavenArtifact>();
+        for (var dependency : selectedDependencies) {
+            MavenArtifact.of(dependency.coordinate())
+                    .ifPresent(artifact -> coordinates.put(dependency.library(), artifact));
+        }
+
+        var artifacts = new ArrayList<LockedArtifact>();
+        libraries.forEach((library, libraryPath) -> {
+            var absolutePath = libraryPath.toAbsolutePath();
+            try {
+                artifacts.add(new LockedArtifact(
+                        library.toString(),
+                        Optional.ofNullable(coordinates.get(library)),
+                        cacheLayout.uriOf(absolutePath),
+                        relativize(absolutePath, cacheLayout),
+                        Files.size(absolutePath),
+                        Checksums.sha256(absolutePath, cacheLayout)
+                ));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        var entries = new StringJoiner(File.pathSeparator);
+        for (var entry : path.split(File.pathSeparator)) {
+            entries.add(entry.isEmpty() ? entry : relativize(Path.of(entry), cacheLayout).toString());
+        }
+        return new Lockfile(CURRENT_VERSION, inputHash, entries.toString(), List.copyOf(artifacts));
+    }
+
+    private static Path relativize(Path path, CacheLayout cacheLayout) {
+        var root = cacheLayout.root().toAbsolutePath().normalize();
+        var normalized = path.toAbsolutePath().normalize();
+        return normalized.startsWith(root) ? root.relativize(normalized) : normalized;
+    }
+
+    /**
+     * The recorded path, with entries in the cache resolved against the given one.
+     */
+    String path(CacheLayout cacheLayout) {
+        var entries = new StringJoiner(File.pathSeparator);
+        for (var entry : path.split(File.pathSeparator)) {
+            entries.add(entry.isEmpty() ? entry : cacheLayout.root().resolve(entry).toString());
+        }
+        return entries.toString();
+    }
+
+    boolean isIntact(CacheLayout cacheLayout) {
+        return artifacts.stream().allMatch(artifact -> artifact.isPresent(cacheLayout));
+    }
+
+    List<Path> paths(CacheLayout cacheLayout) {
+        return artifacts.stream().map(artifact -> artifact.path(cacheLayout)).toList();
+    }
+}
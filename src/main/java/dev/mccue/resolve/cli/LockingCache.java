@@ -0,0 +1,60 @@
+package dev.mccue.resolve.cli;
+
+import dev.mccue.resolve.Cache;
+import dev.mccue.resolve.CacheKey;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * The resolver's cache, with every file it writes coordinated with other processes the same
+ * way {@link ArtifactDownloader} coordinates its downloads.
+ *
+ * <p>A file missing from the cache is written while holding its {@link CacheLocks} lock, through
+ * a temp file that is renamed into place once complete. A process that needs the same pom, piece
+ * of metadata or jar waits for the lock and then finds it there, instead of reading it half
+ * written or fetching it a second time.
+ */
+final class LockingCache implements Cache {
+    private final Cache delegate;
+    private final CacheLayout layout;
+    private final CacheLocks locks;
+
+    LockingCache(Cache delegate, CacheLayout layout) {
+        this.delegate = delegate;
+        this.layout = layout;
+        this.locks = new CacheLocks(layout);
+    }
+
+    @Override
+    public Path fetchIfAbsent(CacheKey key, Supplier<InputStream> data) {
+        var path = layout.pathOf(key.components());
+        if (Files.exists(path)) {
+            return path;
+        }
+        try (var ignored = locks.lock(path)) {
+            if (!Files.exists(path)) {
+                try (var is = data.get()) {
+                    AtomicFiles.copy(is, path);
+                }
+            }
+            return path;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for " + path));
+        }
+    }
+
+    @Override
+    public Optional<Path> probe(CacheKey key) {
+        return delegate.probe(key);
+    }
+}
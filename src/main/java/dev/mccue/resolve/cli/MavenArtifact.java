@@ -0,0 +1,147 @@
+package dev.mccue.resolve.cli;
+
+import dev.mccue.json.Json;
+import dev.mccue.json.JsonDecoder;
+import dev.mccue.json.JsonEncodable;
+import dev.mccue.resolve.Coordinate;
+import dev.mccue.resolve.maven.MavenCoordinate;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+record MavenArtifact(
+        String group,
+        String artifact,
+        String version,
+        Optional<String> classifier
+) implements JsonEncodable {
+    static Optional<MavenArtifact> of(Coordinate coordinate) {
+        if (!(coordinate instanceof MavenCoordinate mavenCoordinate)) {
+            return Optional.empty();
+        }
+        var classifier = mavenCoordinate.classifier() == null
+                ? null
+                : mavenCoordinate.classifier().value();
+        return Optional.of(new MavenArtifact(
+                mavenCoordinate.group().value(),
+                mavenCoordinate.artifact().value(),
+                mavenCoordinate.version().toString(),
+                Optional.ofNullable(classifier).filter(c -> !c.isBlank())
+        ));
+    }
+
+    /**
+     * The artifact a file in the given repository belongs to, if it is in that
+     * repository and its path follows the maven layout.
+     */
+    static Optional<MavenArtifact> fromUri(Repository repository, URI uri) {
+        var url = repository.url();
+        if (!url.endsWith("/")) {
+            url = url + "/";
+        }
+        var location = uri.toString();
+        if (!location.startsWith(url)) {
+            return Optional.empty();
+        }
+
+        var segments = location.substring(url.length()).split("/");
+        if (segments.length < 4) {
+            return Optional.empty();
+        }
+        var fileName = segments[segments.length - 1];
+        var version = segments[segments.length - 2];
+        var artifact = segments[segments.length - 3];
+        var group = String.join(".", Arrays.asList(segments).subList(0, segments.length - 3));
+        var prefix = artifact + "-" + version;
+        if (!fileName.startsWith(prefix)) {
+            return Optional.empty();
+        }
+
+        var rest = fileName.substring(prefix.length());
+        var extension = rest.indexOf('.');
+        var classifier = extension < 0 ? rest : rest.substring(0, extension);
+        return Optional.of(new MavenArtifact(
+                group,
+                artifact,
+                version,
+                Optional.of(classifier)
+                        .filter(c -> c.startsWith("-"))
+                        .map(c -> c.substring(1))
+        ));
+    }
+
+    static MavenArtifact fromJson(Json json) {
+        return new MavenArtifact(
+                JsonDecoder.field(json, "group", JsonDecoder::string),
+                JsonDecoder.field(json, "artifact", JsonDecoder::string),
+                JsonDecoder.field(json, "version", JsonDecoder::string),
+                JsonDecoder.optionalField(json, "classifier", JsonDecoder::string)
+        );
+    }
+
+    @Override
+    public Json toJson() {
+        var builder = Json.objectBuilder()
+                .put("group", Json.of(group))
+                .put("artifact", Json.of(artifact))
+                .put("version", Json.of(version));
+        classifier.ifPresent(classifier -> builder.put("classifier", Json.of(classifier)));
+        return builder.build();
+    }
+
+    boolean isSnapshot() {
+        return version.endsWith("-SNAPSHOT");
+    }
+
+    boolean isVersionRange() {
+        return version.startsWith("[") || version.startsWith("(");
+    }
+
+    /**
+     * Files in the given repository that can change after they are published, and so
+     * are worth revalidating once cached.
+     */
+    List<URI> mutableUris(Repository repository) {
+        var url = repository.url();
+        if (url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+        var directory = url + "/" + group.replace('.', '/') + "/" + artifact;
+        if (isSnapshot()) {
+            return List.of(
+                    URI.create(directory + "/maven-metadata.xml"),
+                    URI.create(directory + "/" + version + "/maven-metadata.xml"),
+                    uri(repository, "pom"),
+                    uri(repository, "jar")
+            );
+        } else if (isVersionRange()) {
+            return List.of(URI.create(directory + "/maven-metadata.xml"));
+        } else {
+            return List.of();
+        }
+    }
+
+    String packageUrl() {
+        return "pkg:maven/" + group + "/" + artifact + "@" + version
+                + classifier.map(classifier -> "?classifier=" + classifier).orElse("");
+    }
+
+    String path(String extension) {
+        return group.replace('.', '/')
+                + "/" + artifact
+                + "/" + version
+                + "/" + artifact + "-" + version
+                + classifier.map(classifier -> "-" + classifier).orElse("")
+                + "." + extension;
+    }
+
+    URI uri(Repository repository, String extension) {
+        var url = repository.url();
+        if (url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+        return URI.create(url + "/" + path(extension));
+    }
+}
@@ -0,0 +1,132 @@
+package dev.mccue.resolve.cli;
+
+import dev.mccue.json.Json;
+import dev.mccue.json.JsonEncodable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings and counts collected over a run, written out by {@code --metrics}.
+ *
+ * <p>Each phase is also committed as a {@link PhaseEvent} and each repository request as a
+ * {@link RepositoryRequestEvent}, so the same information shows up in a flight recording.
+ */
+final class Metrics implements JsonEncodable {
+    private final Map<String, Long> phases = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, HostStats> hosts = new ConcurrentHashMap<>();
+
+    private static final class HostStats {
+        final LongAdder requests = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    final class Phase implements AutoCloseable {
+        private final String name;
+        private final long start = System.nanoTime();
+        private final PhaseEvent event = new PhaseEvent();
+
+        private Phase(String name) {
+            this.name = name;
+            event.phase = name;
+            event.begin();
+        }
+
+        @Override
+        public void close() {
+            event.commit();
+            phases.merge(name, System.nanoTime() - start, Long::sum);
+        }
+    }
+
+    Phase phase(String name) {
+        return new Phase(name);
+    }
+
+    interface Measured<T> {
+        T run() throws Exception;
+    }
+
+    <T> T measure(String name, Measured<T> body) throws Exception {
+        try (var ignored = phase(name)) {
+            return body.run();
+        }
+    }
+
+    void increment(String counter) {
+        add(counter, 1);
+    }
+
+    void add(String counter, long amount) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).add(amount);
+    }
+
+    void recordRequest(String host, long latencyNanos, long bytes, boolean failed) {
+        var stats = hosts.computeIfAbsent(host, k -> new HostStats());
+        stats.requests.increment();
+        if (failed) {
+            stats.failures.increment();
+        }
+        stats.bytes.add(bytes);
+        stats.latencies.add(latencyNanos);
+    }
+
+    private static Json millis(long nanos) {
+        return Json.of(nanos / 1_000_000.0);
+    }
+
+    @Override
+    public Json toJson() {
+        var phasesJson = Json.objectBuilder();
+        synchronized (phases) {
+            phases.forEach((name, nanos) -> phasesJson.put(name, millis(nanos)));
+        }
+
+        var hostsJson = Json.objectBuilder();
+        new TreeMap<>(hosts).forEach((host, stats) -> {
+            List<Long> latencies;
+            synchronized (stats.latencies) {
+                latencies = new ArrayList<>(stats.latencies);
+            }
+            Collections.sort(latencies);
+            hostsJson.put(host, Json.objectBuilder()
+                    .put("requests", Json.of(stats.requests.sum()))
+                    .put("failures", Json.of(stats.failures.sum()))
+                    .put("bytes", Json.of(stats.bytes.sum()))
+                    .put("latencyMillis", Json.objectBuilder()
+                            .put("p50", millis(percentile(latencies, 0.50)))
+                            .put("p90", millis(percentile(latencies, 0.90)))
+                            .put("p99", millis(percentile(latencies, 0.99)))
+                            .put("max", millis(latencies.isEmpty() ? 0 : latencies.get(latencies.size() - 1)))
+                            .build())
+                    .build());
+        });
+
+        var countersJson = Json.objectBuilder();
+        new TreeMap<>(counters).forEach((name, count) -> countersJson.put(name, Json.of(count.sum())));
+
+        return Json.objectBuilder()
+                .put("phases", phasesJson.build())
+                .put("hosts", hostsJson.build())
+                .put("counters", countersJson.build())
+                .build();
+    }
+
+    private static long percentile(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        var index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    void write(Path file) throws IOException {
+        AtomicFiles.writeString(file, Json.writeString(this));
+    }
+}
@@ -0,0 +1,180 @@
+package dev.mccue.resolve.cli;
+
+import dev.mccue.json.Json;
+import dev.mccue.json.JsonDecoder;
+import dev.mccue.json.JsonEncodable;
+
+import java.io.IOException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An on-disk record of the module names found in jars.
+ *
+ * <p>Finding the module name of a jar means opening it and reading either its
+ * {@code module-info.class} or its manifest. Jars in the cache never change, so the
+ * answer is kept keyed by path, size and modification time and only jars that are new
+ * or have changed are opened.
+ */
+final class ModuleNameIndex {
+    private record Entry(
+            Path path,
+            long size,
+            long lastModified,
+            List<String> modules
+    ) implements JsonEncodable {
+        static Entry fromJson(Json json) {
+            return new Entry(
+                    JsonDecoder.field(json, "path", JsonDecoder.string().map(Path::of)),
+                    JsonDecoder.field(json, "size", JsonDecoder::long_),
+                    JsonDecoder.field(json, "lastModified", JsonDecoder::long_),
+                    JsonDecoder.field(json, "modules", JsonDecoder.array(JsonDecoder.string()))
+            );
+        }
+
+        @Override
+        public Json toJson() {
+            var modulesJson = Json.arrayBuilder();
+            modules.forEach(module -> modulesJson.add(Json.of(module)));
+            return Json.objectBuilder()
+                    .put("path", Json.of(path.toString()))
+                    .put("size", Json.of(size))
+                    .put("lastModified", Json.of(lastModified))
+                    .put("modules", modulesJson.build())
+                    .build();
+        }
+    }
+
+    private final Path file;
+    private final Map<Path, Entry> entries;
+    private volatile boolean changed = false;
+
+    private ModuleNameIndex(Path file, Map<Path, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    static ModuleNameIndex load(Path file) throws IOException {
+        var entries = new ConcurrentHashMap<Path, Entry>();
+        for (var entry : read(file)) {
+            entries.put(entry.path(), entry);
+        }
+        return new ModuleNameIndex(file, entries);
+    }
+
+    private static List<Entry> read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return List.of();
+        }
+        try {
+            return JsonDecoder.array(Json.readString(Files.readString(file)), Entry::fromJson);
+        } catch (RuntimeException e) {
+            // A corrupt index is rebuilt from scratch
+            return List.of();
+        }
+    }
+
+    /**
+     * Finds the names of the modules in each of the given jars. Anything other than exactly
+     * one name means the jar has no module or more than one.
+     */
+    Map<Path, List<String>> moduleNames(Collection<Path> jars) throws IOException, InterruptedException {
+        var result = new LinkedHashMap<Path, List<String>>();
+        var misses = new LinkedHashMap<Path, BasicFileAttributes>();
+        for (var jar : jars) {
+            var key = jar.toAbsolutePath().normalize();
+            var attributes = Files.readAttributes(key, BasicFileAttributes.class);
+            var entry = entries.get(key);
+            if (entry != null
+                    && entry.size() == attributes.size()
+                    && entry.lastModified() == attributes.lastModifiedTime().toMillis()) {
+                result.put(jar, entry.modules());
+            } else {
+                misses.put(jar, attributes);
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            var scans = new LinkedHashMap<Path, Future<List<String>>>();
+            try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (var jar : misses.keySet()) {
+                    scans.put(jar, executor.submit(() -> scan(jar)));
+                }
+            }
+
+            for (var scan : scans.entrySet()) {
+                var jar = scan.getKey();
+                List<String> modules;
+                try {
+                    modules = scan.getValue().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException runtimeException) {
+                        throw runtimeException;
+                    }
+                    throw new IOException(e.getCause());
+                }
+                var attributes = misses.get(jar);
+                var key = jar.toAbsolutePath().normalize();
+                entries.put(key, new Entry(
+                        key,
+                        attributes.size(),
+                        attributes.lastModifiedTime().toMillis(),
+                        modules
+                ));
+                result.put(jar, modules);
+            }
+            changed = true;
+        }
+
+        var ordered = new LinkedHashMap<Path, List<String>>();
+        for (var jar : jars) {
+            ordered.put(jar, result.get(jar));
+        }
+        return ordered;
+    }
+
+    private static List<String> scan(Path jar) {
+        return ModuleFinder.of(jar)
+                .findAll()
+                .stream()
+                .map(ModuleReference::descriptor)
+                .map(ModuleDescriptor::name)
+                .sorted()
+                .toList();
+    }
+
+    /*
+     * Other processes sharing the cache save the jars they scanned too, so what is on disk is
+     * read again under the lock and merged in rather than overwritten. Entries for jars that
+     * no longer exist are dropped, which keeps the index from growing forever as the cache is
+     * cleaned.
+     */
+    synchronized void save() throws IOException, InterruptedException {
+        if (!changed) {
+            return;
+        }
+        var parent = file.toAbsolutePath().getParent();
+        try (var ignored = new CacheLocks(new CacheLayout(parent)).lock("module-names")) {
+            for (var entry : read(file)) {
+                entries.putIfAbsent(entry.path(), entry);
+            }
+            var entriesJson = Json.arrayBuilder();
+            entries.values()
+                    .stream()
+                    .filter(entry -> Files.exists(entry.path()))
+                    .sorted(Comparator.comparing(Entry::path))
+                    .forEach(entriesJson::add);
+            AtomicFiles.writeString(file, Json.writeString(entriesJson.build()));
+        }
+        changed = false;
+    }
+}
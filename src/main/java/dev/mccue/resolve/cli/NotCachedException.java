@@ -0,0 +1,48 @@
+package dev.mccue.resolve.cli;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Thrown in place of making a request when running with --offline.
+ */
+final class NotCachedException extends IOException {
+    private final List<URI> uris;
+
+    NotCachedException(List<URI> uris) {
+        super("Not in the cache and running offline: " + uris);
+        this.uris = List.copyOf(uris);
+    }
+
+    List<URI> uris() {
+        return uris;
+    }
+
+    /**
+     * Everything reported missing anywhere in the given exception's causes, or
+     * an empty list if it did not fail because of --offline.
+     */
+    static List<URI> find(Throwable throwable) {
+        var uris = new LinkedHashSet<URI>();
+        find(throwable, uris, new ArrayList<>());
+        return List.copyOf(uris);
+    }
+
+    private static void find(Throwable throwable, Set<URI> uris, List<Throwable> seen) {
+        if (throwable == null || seen.contains(throwable)) {
+            return;
+        }
+        seen.add(throwable);
+        if (throwable instanceof NotCachedException notCached) {
+            uris.addAll(notCached.uris);
+        }
+        find(throwable.getCause(), uris, seen);
+        for (var suppressed : throwable.getSuppressed()) {
+            find(suppressed, uris, seen);
+        }
+    }
+}
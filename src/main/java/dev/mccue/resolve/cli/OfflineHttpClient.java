@@ -0,0 +1,45 @@
+package dev.mccue.resolve.cli;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Fails every request immediately.
+ *
+ * <p>The resolver only makes a request for something it could not find in the cache, so
+ * with --offline each request is a missing artifact. Failing right away turns what would
+ * be a connection timeout per artifact in a sandbox without network into one error.
+ */
+final class OfflineHttpClient extends ForwardingHttpClient {
+    OfflineHttpClient(HttpClient delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> responseBodyHandler
+    ) throws NotCachedException {
+        throw new NotCachedException(List.of(request.uri()));
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> responseBodyHandler
+    ) {
+        return CompletableFuture.failedFuture(new NotCachedException(List.of(request.uri())));
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> responseBodyHandler,
+            HttpResponse.PushPromiseHandler<T> pushPromiseHandler
+    ) {
+        return CompletableFuture.failedFuture(new NotCachedException(List.of(request.uri())));
+    }
+}
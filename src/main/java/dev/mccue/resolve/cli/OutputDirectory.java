@@ -0,0 +1,181 @@
+package dev.mccue.resolve.cli;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Places artifacts from the cache into an output directory.
+ *
+ * <p>Links fall back to copying when they can't be made, such as when the cache and the
+ * output directory are on different file systems.
+ *
+ * <p>Copies are given the modification time of the artifact they were copied from, so when
+ * syncing, a copy with the same size and modification time is taken to be up to date without
+ * reading either file. Only when those differ is the copy hashed, against the SHA-256 the
+ * cache keeps beside the artifact.
+ */
+final class OutputDirectory {
+    record Result(int written, int skipped, int removed) {}
+
+    private final Path directory;
+    private final CacheLayout cacheLayout;
+    private final LinkMode linkMode;
+    private final boolean sync;
+    private final PrintWriter err;
+    private boolean reportedFallback = false;
+
+    OutputDirectory(Path directory, CacheLayout cacheLayout, LinkMode linkMode, boolean sync, PrintWriter err) {
+        this.directory = directory;
+        this.cacheLayout = cacheLayout;
+        this.linkMode = linkMode;
+        this.sync = sync;
+        this.err = err;
+    }
+
+    /**
+     * @param artifacts File names in the output directory to the artifacts they should contain.
+     */
+    Result populate(Map<String, Path> artifacts) throws IOException {
+        Files.createDirectories(directory);
+
+        int written = 0;
+        int skipped = 0;
+        int removed = 0;
+
+        if (sync) {
+            try (var files = Files.list(directory)) {
+                for (var file : files.toList()) {
+                    if (!artifacts.containsKey(file.getFileName().toString())
+                            && !Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+                        Files.delete(file);
+                        removed++;
+                    }
+                }
+            }
+        }
+
+        for (var entry : artifacts.entrySet()) {
+            var source = entry.getValue();
+            var target = directory.resolve(entry.getKey());
+            if (sync && isUpToDate(source, target)) {
+                skipped++;
+                continue;
+            }
+
+            try {
+                place(source, target);
+                written++;
+            } catch (IOException e) {
+                err.println("Could not copy file: " + source);
+                err.flush();
+                throw e;
+            }
+        }
+
+        return new Result(written, skipped, removed);
+    }
+
+    private boolean isUpToDate(Path source, Path target) throws IOException {
+        if (!Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+
+        if (Files.isSymbolicLink(target)) {
+            return linkMode == LinkMode.symlink
+                    && Files.readSymbolicLink(target).equals(source.toAbsolutePath());
+        }
+
+        if (Files.isSameFile(source, target)) {
+            return true;
+        }
+
+        if (Files.size(source) != Files.size(target)) {
+            return false;
+        }
+        var lastModified = Files.getLastModifiedTime(source);
+        if (Files.getLastModifiedTime(target).equals(lastModified)) {
+            return true;
+        }
+        if (!Checksums.sha256(source, cacheLayout).equals(Digests.sha256(target))) {
+            return false;
+        }
+        // So the next sync doesn't have to read it again
+        Files.setLastModifiedTime(target, lastModified);
+        return true;
+    }
+
+    /*
+     * Builds the new entry beside the target and renames it into place, so anything
+     * reading the directory never sees a half written jar.
+     */
+    private void place(Path source, Path target) throws IOException {
+        var temp = target.resolveSibling("." + target.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        try {
+            var linked = switch (linkMode) {
+                case copy -> false;
+                case hardlink -> tryLink(() -> Files.createLink(temp, source));
+                case symlink -> tryLink(() -> Files.createSymbolicLink(temp, source.toAbsolutePath()));
+                case reflink -> tryLink(() -> reflink(source, temp));
+            };
+            if (!linked) {
+                Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (!Files.isSymbolicLink(temp)) {
+                Files.setLastModifiedTime(temp, Files.getLastModifiedTime(source));
+            }
+            AtomicFiles.move(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private interface LinkAction {
+        void run() throws IOException;
+    }
+
+    private boolean tryLink(LinkAction action) {
+        try {
+            action.run();
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            if (!reportedFallback) {
+                reportedFallback = true;
+                err.println("Could not " + linkMode + " into " + directory + ", copying instead: " + e.getMessage());
+                err.flush();
+            }
+            return false;
+        }
+    }
+
+    /*
+     * There is no java api for copy-on-write clones, so this defers to cp.
+     */
+    private static void reflink(Path source, Path target) throws IOException {
+        var osName = System.getProperty("os.name").toLowerCase(Locale.US);
+        List<String> command;
+        if (osName.contains("linux")) {
+            command = List.of("cp", "--reflink=always", source.toString(), target.toString());
+        } else if (osName.contains("mac")) {
+            command = List.of("cp", "-c", source.toString(), target.toString());
+        } else {
+            throw new UnsupportedOperationException("reflink is not supported on " + osName);
+        }
+
+        try {
+            var process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (process.waitFor() != 0) {
+                Files.deleteIfExists(target);
+                throw new IOException("cp exited with " + process.exitValue());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package dev.mccue.resolve.cli;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("dev.mccue.resolve.cli.Phase")
+@Label("jresolve Phase")
+@Category("jresolve")
+@Description("A phase of a jresolve run, such as resolving or fetching")
+final class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+}
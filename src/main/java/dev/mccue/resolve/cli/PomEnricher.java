@@ -0,0 +1,241 @@
+package dev.mccue.resolve.cli;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Replaces the {@code <dependencies>} of a pom's root element, leaving every other
+ * character of the file as it was.
+ *
+ * <p>The pom is streamed through StAX to check it is well-formed, then scanned once more to
+ * find where the root's {@code <dependencies>} starts and ends. StAX can't be used for that
+ * too, since the locations it reports are only approximate. Neither builds a tree of the
+ * document, and only the new dependencies are formatted, following the indentation and line
+ * endings already used in the file.
+ *
+ * <p>The pom is handled as one String, so it is held in memory whole. Dependencies are written
+ * without a {@code <scope>}, since a resolution doesn't say which scope each one belongs in.
+ */
+final class PomEnricher {
+    // Configured once, since creating readers from it afterwards doesn't change it
+    private static final XMLInputFactory XML_INPUT_FACTORY = xmlInputFactory();
+
+    private PomEnricher() {}
+
+    private static XMLInputFactory xmlInputFactory() {
+        var factory = XMLInputFactory.newDefaultFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return factory;
+    }
+
+    /*
+     * Where things are in the pom, as offsets into its text.
+     */
+    private record Layout(
+            int dependenciesStart,
+            int dependenciesEnd,
+            int rootEnd,
+            String indent
+    ) {}
+
+    static String enrich(String pom, List<MavenArtifact> dependencies) throws XMLStreamException {
+        check(pom);
+        var layout = scan(pom);
+        var newline = pom.contains("\r\n") ? "\r\n" : "\n";
+        var block = dependenciesBlock(dependencies, layout.indent(), newline);
+
+        if (layout.dependenciesStart() >= 0) {
+            return pom.substring(0, layout.dependenciesStart())
+                    + block
+                    + pom.substring(layout.dependenciesEnd());
+        }
+
+        // Added as the last child of the root, on its own line
+        var lineStart = pom.lastIndexOf('\n', layout.rootEnd() - 1) + 1;
+        if (pom.substring(lineStart, layout.rootEnd()).isBlank()) {
+            return pom.substring(0, lineStart)
+                    + layout.indent() + block + newline
+                    + pom.substring(lineStart);
+        }
+        return pom.substring(0, layout.rootEnd())
+                + newline + layout.indent() + block + newline
+                + pom.substring(layout.rootEnd());
+    }
+
+    private static void check(String pom) throws XMLStreamException {
+        var reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(pom));
+        try {
+            while (reader.hasNext()) {
+                reader.next();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /*
+     * Only has to understand as much XML as it takes to not mistake a comment, CDATA section,
+     * processing instruction, doctype or attribute value for a tag. The document is known to
+     * be well-formed by this point.
+     */
+    private static Layout scan(String pom) throws XMLStreamException {
+        var depth = 0;
+        var dependenciesStart = -1;
+        var dependenciesEnd = -1;
+        var rootEnd = -1;
+        String indent = null;
+        var i = 0;
+        while (i < pom.length()) {
+            var next = pom.indexOf('<', i);
+            if (next < 0) {
+                break;
+            }
+            i = next;
+            if (pom.startsWith("<!--", i)) {
+                i = skipPast(pom, i, "-->");
+            } else if (pom.startsWith("<![CDATA[", i)) {
+                i = skipPast(pom, i, "]]>");
+            } else if (pom.startsWith("<?", i)) {
+                i = skipPast(pom, i, "?>");
+            } else if (pom.startsWith("<!", i)) {
+                i = skipDoctype(pom, i);
+            } else if (pom.startsWith("</", i)) {
+                var end = skipPast(pom, i, ">");
+                depth--;
+                if (depth == 1 && dependenciesStart >= 0 && dependenciesEnd < 0
+                        && localName(pom.substring(i + 2, end - 1).strip()).equals("dependencies")) {
+                    dependenciesEnd = end;
+                }
+                if (depth == 0) {
+                    rootEnd = i;
+                    break;
+                }
+                i = end;
+            } else {
+                var end = skipTag(pom, i);
+                var selfClosing = pom.charAt(end - 2) == '/';
+                var name = tagName(pom, i + 1);
+                if (depth == 1) {
+                    if (indent == null) {
+                        indent = indentBefore(pom, i);
+                    }
+                    if (dependenciesStart < 0 && localName(name).equals("dependencies")) {
+                        dependenciesStart = i;
+                        indent = indentBefore(pom, i);
+                        if (selfClosing) {
+                            dependenciesEnd = end;
+                        }
+                    }
+                }
+                if (!selfClosing) {
+                    depth++;
+                }
+                i = end;
+            }
+        }
+
+        if (rootEnd < 0) {
+            throw new XMLStreamException("Could not find the end of the root element");
+        }
+        return new Layout(
+                dependenciesStart,
+                dependenciesEnd,
+                rootEnd,
+                indent == null || indent.isEmpty() ? "    " : indent
+        );
+    }
+
+    private static int skipPast(String pom, int from, String terminator) throws XMLStreamException {
+        var end = pom.indexOf(terminator, from);
+        if (end < 0) {
+            throw new XMLStreamException("Unterminated markup at character " + from);
+        }
+        return end + terminator.length();
+    }
+
+    private static int skipDoctype(String pom, int from) throws XMLStreamException {
+        var brackets = 0;
+        for (int i = from; i < pom.length(); i++) {
+            switch (pom.charAt(i)) {
+                case '[' -> brackets++;
+                case ']' -> brackets--;
+                case '>' -> {
+                    if (brackets == 0) {
+                        return i + 1;
+                    }
+                }
+                default -> {}
+            }
+        }
+        throw new XMLStreamException("Unterminated doctype at character " + from);
+    }
+
+    private static int skipTag(String pom, int from) throws XMLStreamException {
+        char quote = 0;
+        for (int i = from; i < pom.length(); i++) {
+            var c = pom.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i + 1;
+            }
+        }
+        throw new XMLStreamException("Unterminated tag at character " + from);
+    }
+
+    private static String tagName(String pom, int from) {
+        var end = from;
+        while (end < pom.length()) {
+            var c = pom.charAt(end);
+            if (Character.isWhitespace(c) || c == '/' || c == '>') {
+                break;
+            }
+            end++;
+        }
+        return pom.substring(from, end);
+    }
+
+    private static String localName(String name) {
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    /*
+     * The whitespace a tag is indented with, if it starts its line.
+     */
+    private static String indentBefore(String pom, int tagStart) {
+        var lineStart = pom.lastIndexOf('\n', tagStart - 1) + 1;
+        var before = pom.substring(lineStart, tagStart);
+        return before.isBlank() ? before.replace("\r", "") : "";
+    }
+
+    private static String dependenciesBlock(List<MavenArtifact> dependencies, String indent, String newline) {
+        var block = new StringBuilder("<dependencies>").append(newline);
+        for (var dependency : dependencies) {
+            var inner = indent.repeat(3);
+            block.append(indent.repeat(2)).append("<dependency>").append(newline);
+            element(block, inner, "groupId", dependency.group(), newline);
+            element(block, inner, "artifactId", dependency.artifact(), newline);
+            element(block, inner, "version", dependency.version(), newline);
+            dependency.classifier().ifPresent(classifier -> element(block, inner, "classifier", classifier, newline));
+            block.append(indent.repeat(2)).append("</dependency>").append(newline);
+        }
+        return block.append(indent).append("</dependencies>").toString();
+    }
+
+    private static void element(StringBuilder block, String indent, String name, String value, String newline) {
+        block.append(indent)
+                .append('<').append(name).append('>')
+                .append(value
+                        .replace("&", "&amp;")
+                        .replace("<", "&lt;")
+                        .replace(">", "&gt;"))
+                .append("</").append(name).append('>')
+                .append(newline);
+    }
+}
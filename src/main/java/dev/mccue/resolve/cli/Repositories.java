@@ -0,0 +1,128 @@
+package dev.mccue.resolve.cli;
+
+import dev.mccue.json.Json;
+import dev.mccue.json.JsonDecoder;
+import dev.mccue.resolve.maven.MavenRepository;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The maven repositories known to a run, each with one long-lived {@link HttpClient}.
+ *
+ * <p>The same client is handed to the resolver for every request it makes and is used
+ * for artifact downloads, so connections, TLS sessions and HTTP/2 streams are reused
+ * across resolve, fetch and every dependency set.
+ */
+final class Repositories {
+    private final Map<String, Repository> declarations;
+    private final Map<Repository, HttpClient> clients;
+    private final Map<Repository, HttpClient> networkClients;
+    private final Map<String, MavenRepository> mavenRepositories;
+    private final boolean offline;
+    private final CacheLayers layers;
+    private final CopyOnWriteArrayList<Metrics> observers = new CopyOnWriteArrayList<>();
+
+    private Repositories(Map<String, Repository> declarations, boolean offline, CacheLayers layers) {
+        this.declarations = Collections.unmodifiableMap(declarations);
+        this.offline = offline;
+        this.layers = layers;
+        this.clients = new ConcurrentHashMap<>();
+        this.networkClients = new ConcurrentHashMap<>();
+
+        var mavenRepositories = new HashMap<String, MavenRepository>();
+        mavenRepositories.put("local", MavenRepository.local());
+        declarations.forEach((name, repository) -> mavenRepositories.put(
+                name,
+                MavenRepository.remote(repository.url(), () -> client(repository))
+        ));
+        this.mavenRepositories = Collections.unmodifiableMap(mavenRepositories);
+    }
+
+    /**
+     * @param repositoriesFile The contents of a --maven-repositories-file, or an empty string.
+     * @param offline Whether every request should fail instead of reaching the network.
+     * @param layers Read-only caches to answer requests from before trying the network.
+     */
+    static Repositories fromJson(String repositoriesFile, boolean offline, CacheLayers layers) {
+        var declarations = new LinkedHashMap<String, Repository>();
+        declarations.put("central", Repository.CENTRAL);
+        if (!repositoriesFile.isBlank()) {
+            declarations.putAll(JsonDecoder.object(
+                    Json.readString(repositoriesFile),
+                    Repository::fromJson
+            ));
+        }
+        return new Repositories(declarations, offline, layers);
+    }
+
+    /**
+     * Remote repositories by name, central first.
+     */
+    Map<String, Repository> declarations() {
+        return declarations;
+    }
+
+    boolean offline() {
+        return offline;
+    }
+
+    CacheLayers layers() {
+        return layers;
+    }
+
+    Repository central() {
+        return declarations.get("central");
+    }
+
+    /**
+     * Repositories by name in the form {@link dev.mccue.resolve.Dependency#fromCoordinate} expects.
+     */
+    Map<String, MavenRepository> mavenRepositories() {
+        return mavenRepositories;
+    }
+
+    HttpClient client(Repository repository) {
+        if (layers.isEmpty()) {
+            return networkClient(repository);
+        }
+        return clients.computeIfAbsent(repository, key -> new LayeredCacheHttpClient(networkClient(repository), layers));
+    }
+
+    /**
+     * The client for the repository itself, past any read-only cache layers. Asking whether
+     * a cached file is still current has to reach the repository, since a layer can only say
+     * what it held when it was made.
+     */
+    HttpClient networkClient(Repository repository) {
+        return networkClients.computeIfAbsent(repository, key -> new InstrumentedHttpClient(
+                offline ? new OfflineHttpClient(repository.newHttpClient()) : repository.newHttpClient(),
+                observers
+        ));
+    }
+
+    /**
+     * Reports requests made with these clients to the given metrics until closed. When the
+     * same repositories serve concurrent commands, each sees the requests of all of them.
+     */
+    AutoCloseable observe(Metrics metrics) {
+        observers.add(metrics);
+        return () -> observers.remove(metrics);
+    }
+
+    /**
+     * The client for whichever declared repository serves the given url.
+     */
+    HttpClient clientFor(URI uri) {
+        var url = uri.toString();
+        return declarations.values()
+                .stream()
+                .filter(repository -> url.startsWith(repository.url()))
+                .findFirst()
+                .map(this::client)
+                .orElseGet(() -> client(Repository.of(uri.resolve("/").toString())));
+    }
+}
@@ -3,16 +3,89 @@ package dev.mccue.resolve.cli;
 import dev.mccue.json.Json;
 import dev.mccue.json.JsonDecoder;
 
+import java.net.Authenticator;
+import java.net.PasswordAuthentication;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.Executors;
 
 record Repository(
         String url,
-        Optional<Authentication> authentication
+        Optional<Authentication> authentication,
+        Optional<Duration> connectTimeout,
+        Optional<HttpClient.Version> httpVersion,
+        Optional<Repository.Executor> executor,
+        Optional<Duration> metadataTtl
 ) {
+    /**
+     * What the repository's HTTP client handles responses on.
+     */
+    enum Executor {
+        DEFAULT,
+        VIRTUAL;
+
+        static Executor fromJson(Json json) {
+            var executor = JsonDecoder.string(json);
+            return switch (executor) {
+                case "default" -> DEFAULT;
+                case "virtual" -> VIRTUAL;
+                default -> throw new IllegalArgumentException(
+                        "Unknown executor \"" + executor + "\". Expected \"virtual\" or \"default\""
+                );
+            };
+        }
+    }
+
+    static final Repository CENTRAL = Repository.of("https://repo1.maven.org/maven2");
+
+    /*
+     * How long cached snapshots and maven-metadata.xml files are trusted before being
+     * revalidated, when not configured. The same as maven's default update policy.
+     */
+    static final Duration DEFAULT_METADATA_TTL = Duration.ofDays(1);
+
+    static Repository of(String url) {
+        return new Repository(url, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+    }
+
     static Repository fromJson(Json json) {
         return new Repository(
                 JsonDecoder.field(json, "url", JsonDecoder::string),
-                JsonDecoder.optionalField(json, "authentication", Authentication::fromJson)
+                JsonDecoder.optionalField(json, "authentication", Authentication::fromJson),
+                JsonDecoder.optionalField(json, "connectTimeout", JsonDecoder.string().map(Duration::parse)),
+                JsonDecoder.optionalField(json, "httpVersion", JsonDecoder.string().map(version ->
+                        HttpClient.Version.valueOf(version.toUpperCase(Locale.US).replace('.', '_'))
+                )),
+                JsonDecoder.optionalField(json, "executor", Executor::fromJson),
+                JsonDecoder.optionalField(json, "metadataTtl", JsonDecoder.string().map(Duration::parse))
         );
     }
+
+    /*
+     * Clients are expensive to build and hold the connection pool, so this
+     * should be called once per repository. See Repositories.
+     */
+    HttpClient newHttpClient() {
+        var builder = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .version(httpVersion.orElse(HttpClient.Version.HTTP_2));
+        connectTimeout.ifPresent(builder::connectTimeout);
+        if (executor.orElse(Executor.DEFAULT) == Executor.VIRTUAL) {
+            builder.executor(Executors.newVirtualThreadPerTaskExecutor());
+        }
+        authentication.ifPresent(authentication -> {
+            builder.authenticator(new Authenticator() {
+                @Override
+                protected PasswordAuthentication getPasswordAuthentication() {
+                    return new PasswordAuthentication(
+                            authentication.username(),
+                            authentication.password().toCharArray()
+                    );
+                }
+            });
+        });
+        return builder.build();
+    }
 }
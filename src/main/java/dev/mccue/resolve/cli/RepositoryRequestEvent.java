@@ -0,0 +1,31 @@
+package dev.mccue.resolve.cli;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("dev.mccue.resolve.cli.RepositoryRequest")
+@Label("jresolve Repository Request")
+@Category("jresolve")
+@Description("An HTTP request made to a maven repository")
+final class RepositoryRequestEvent extends Event {
+    @Label("Host")
+    String host;
+
+    @Label("URI")
+    String uri;
+
+    @Label("Status")
+    int status;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Failure")
+    @Description("Why the request failed, if it did")
+    String failure;
+}
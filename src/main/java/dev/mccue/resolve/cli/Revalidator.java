@@ -0,0 +1,111 @@
+package dev.mccue.resolve.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Checks whether cached files that can change upstream, like snapshots and
+ * {@code maven-metadata.xml}, are still current.
+ *
+ * <p>The resolver never looks at a file again once it is in the cache, so this is what keeps
+ * them from being trusted forever. A file is only checked once it is older than its time to
+ * live, and then with a conditional request, so a file that hasn't changed costs one round
+ * trip and no body. A file that has is replaced in the cache.
+ */
+final class Revalidator {
+    enum Outcome {
+        /**
+         * Checked more recently than its time to live, so no request was made.
+         */
+        FRESH,
+        NOT_MODIFIED,
+        UPDATED,
+        /**
+         * The repository didn't answer with either, so the cached file is kept as is.
+         */
+        UNAVAILABLE
+    }
+
+    // RFC 1123 as HTTP requires it, which always has two digit days
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    private final CacheLocks locks;
+
+    Revalidator(CacheLocks locks) {
+        this.locks = locks;
+    }
+
+    Outcome revalidate(URI uri, Path cached, HttpClient client, Duration ttl) throws IOException, InterruptedException {
+        try (var ignored = locks.lock(cached)) {
+            var validators = Validators.read(cached).orElse(null);
+            var lastModified = Files.getLastModifiedTime(cached).toMillis();
+            // Files the resolver downloaded itself have no validators yet, but were current when written
+            var checked = validators == null ? lastModified : validators.checked();
+            var now = System.currentTimeMillis();
+            if (now - checked < ttl.toMillis()) {
+                return Outcome.FRESH;
+            }
+
+            var request = HttpRequest.newBuilder(uri).GET();
+            if (validators != null) {
+                validators.etag().ifPresent(etag -> request.header("If-None-Match", etag));
+            }
+            request.header(
+                    "If-Modified-Since",
+                    Optional.ofNullable(validators)
+                            .flatMap(Validators::lastModified)
+                            .orElseGet(() -> HTTP_DATE.format(Instant.ofEpochMilli(lastModified)))
+            );
+
+            var response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = response.body()) {
+                switch (response.statusCode()) {
+                    case 304 -> {
+                        new Validators(
+                                now,
+                                response.headers().firstValue("ETag")
+                                        .or(() -> Optional.ofNullable(validators).flatMap(Validators::etag)),
+                                response.headers().firstValue("Last-Modified")
+                                        .or(() -> Optional.ofNullable(validators).flatMap(Validators::lastModified))
+                        ).write(cached);
+                        return Outcome.NOT_MODIFIED;
+                    }
+                    case 200 -> {
+                        var temp = Files.createTempFile(cached.getParent(), "." + cached.getFileName(), ".part");
+                        try {
+                            try (var os = Files.newOutputStream(temp)) {
+                                body.transferTo(os);
+                            }
+                            AtomicFiles.move(temp, cached);
+                        } finally {
+                            Files.deleteIfExists(temp);
+                        }
+                        new Validators(
+                                now,
+                                response.headers().firstValue("ETag"),
+                                response.headers().firstValue("Last-Modified")
+                        ).write(cached);
+                        return Outcome.UPDATED;
+                    }
+                    default -> {
+                        return Outcome.UNAVAILABLE;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package dev.mccue.resolve.cli;
+
+import dev.mccue.resolve.Cache;
+import dev.mccue.resolve.Dependency;
+import dev.mccue.resolve.Resolution;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * State that can outlive a single invocation of {@link CliMain}.
+ *
+ * <p>Normally every process gets a fresh session, but a long running process like the
+ * daemon hands the same one to each invocation. Everything in here is either keyed by
+ * the inputs it was derived from or checks itself for staleness, so reuse never
+ * changes a result.
+ *
+ * <ul>
+ *     <li>Repositories and their HTTP clients are keyed by the contents of the repositories file,
+ *     whether they are offline and the read-only cache layers in front of them.</li>
+ *     <li>Caches, cache indexes and cache usage are keyed by their root directory.</li>
+ *     <li>Download limits are keyed by how many downloads they allow, so invocations running at
+ *     the same time with the same fetch options stay within them together.</li>
+ *     <li>Module name index entries are checked against each jar's size and modification time.</li>
+ *     <li>Resolutions are keyed by the dependencies resolved, the repositories they came from
+ *     and the cache, and only kept when nothing they were made from can change upstream.
+ *     The most recently used {@value #RESOLUTIONS} are kept.</li>
+ * </ul>
+ *
+ * <p>The resolver has no way to be handed poms it parsed before, so a resolution that isn't
+ * exactly one kept here reads every pom it needs from the cache again.
+ */
+final class Session {
+    private record RepositoriesKey(String repositoriesFile, boolean offline, CacheLayers layers) {}
+
+    private record ResolutionKey(Cache cache, Repositories repositories, List<Dependency> dependencies) {}
+
+    private record DownloadLimitsKey(int parallelism, int perHostParallelism) {}
+
+    static final int RESOLUTIONS = 64;
+
+    private final Map<RepositoriesKey, Repositories> repositories = new ConcurrentHashMap<>();
+    private final Map<Optional<Path>, Cache> caches = new ConcurrentHashMap<>();
+    private final Map<Path, CacheIndex> cacheIndexes = new ConcurrentHashMap<>();
+    private final Map<Path, CacheUsage> cacheUsages = new ConcurrentHashMap<>();
+    private final Map<Path, ModuleNameIndex> moduleNameIndexes = new ConcurrentHashMap<>();
+    private final Map<DownloadLimitsKey, DownloadLimits> downloadLimits = new ConcurrentHashMap<>();
+    private final Map<ResolutionKey, Resolution> resolutions = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ResolutionKey, Resolution> eldest) {
+                    return size() > RESOLUTIONS;
+                }
+            }
+    );
+
+    Repositories repositories(String repositoriesFile, boolean offline, CacheLayers layers) {
+        return repositories.computeIfAbsent(
+                new RepositoriesKey(repositoriesFile, offline, layers),
+                key -> Repositories.fromJson(key.repositoriesFile(), key.offline(), key.layers())
+        );
+    }
+
+    /**
+     * @param cachePath The root of the cache, or null for the standard location.
+     */
+    Cache cache(Path cachePath) {
+        return caches.computeIfAbsent(
+                Optional.ofNullable(cachePath).map(path -> path.toAbsolutePath().normalize()),
+                path -> new LockingCache(
+                        path.map(Cache::standard).orElseGet(Cache::standard),
+                        CacheLayout.of(path.orElse(null))
+                )
+        );
+    }
+
+    CacheIndex cacheIndex(CacheLayout layout) {
+        return cacheIndexes.computeIfAbsent(layout.root().toAbsolutePath().normalize(), root -> {
+            try {
+                return CacheIndex.load(new CacheLayout(root));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    CacheUsage cacheUsage(CacheLayout layout) {
+        return cacheUsages.computeIfAbsent(
+                layout.root().toAbsolutePath().normalize(),
+                root -> new CacheUsage(new CacheLayout(root))
+        );
+    }
+
+    Optional<Resolution> resolution(Cache cache, Repositories repositories, List<Dependency> dependencies) {
+        return Optional.ofNullable(resolutions.get(new ResolutionKey(cache, repositories, List.copyOf(dependencies))));
+    }
+
+    void resolved(Cache cache, Repositories repositories, List<Dependency> dependencies, Resolution resolution) {
+        resolutions.put(new ResolutionKey(cache, repositories, List.copyOf(dependencies)), resolution);
+    }
+
+    DownloadLimits downloadLimits(int parallelism, int perHostParallelism) {
+        return downloadLimits.computeIfAbsent(
+                new DownloadLimitsKey(parallelism, perHostParallelism),
+                key -> new DownloadLimits(key.parallelism(), key.perHostParallelism())
+        );
+    }
+
+    ModuleNameIndex moduleNameIndex(Path file) {
+        return moduleNameIndexes.computeIfAbsent(file.toAbsolutePath().normalize(), indexFile -> {
+            try {
+                return ModuleNameIndex.load(indexFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+}
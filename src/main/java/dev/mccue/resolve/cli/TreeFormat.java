@@ -0,0 +1,10 @@
+package dev.mccue.resolve.cli;
+
+/**
+ * How {@code --print-tree} writes the dependency tree.
+ */
+public enum TreeFormat {
+    text,
+    json,
+    dot
+}
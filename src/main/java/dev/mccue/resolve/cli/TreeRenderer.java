@@ -0,0 +1,224 @@
+package dev.mccue.resolve.cli;
+
+import dev.mccue.json.Json;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Renders the dependency tree a {@link dev.mccue.resolve.Resolution} prints, as it prints it.
+ *
+ * <p>The resolver expands every subtree under every parent, so a library many things depend on
+ * is repeated along with everything below it. Here only the first occurrence of a selected
+ * library keeps its children and later ones refer back to it, which is what keeps the output of
+ * a large graph readable. Lines are handled one at a time as the resolver writes them, so the
+ * fully expanded tree is never held in memory.
+ *
+ * <p>This only changes what is printed. The resolver still walks and writes out the whole
+ * expanded tree, so a graph that takes long to print takes about as long to render.
+ *
+ * <p>Each line the resolver writes is one node, indented under its parent, optionally marked
+ * {@code .} when included or {@code X} when omitted, then the library, its version and for
+ * omitted ones the reason why, which is passed on as written. Included nodes the resolver
+ * gives no reason for are noted with why their version is the one used.
+ */
+final class TreeRenderer extends Writer {
+    private record Node(int indent, long id, String key) {}
+
+    private final PrintWriter out;
+    private final TreeFormat format;
+    private final int maxDepth;
+    private final Map<String, String> selectedVersions;
+
+    private final StringBuilder line = new StringBuilder();
+    private final Deque<Node> ancestors = new ArrayDeque<>();
+    // Included libraries whose children have been rendered, to the id of the node they are under
+    private final Map<String, Long> expanded = new HashMap<>();
+    private final Set<String> withChildren = new HashSet<>();
+    // For dot, every library and version gets one node however many times it appears
+    private final Map<String, Long> dotNodes = new HashMap<>();
+    private long nextId = 1;
+    private int skipBelow = -1;
+    private boolean started = false;
+
+    /**
+     * @param maxDepth How many levels of the tree to render, or 0 for all of them.
+     * @param selectedVersions The version selected for each library, keyed by group and artifact.
+     */
+    TreeRenderer(PrintWriter out, TreeFormat format, int maxDepth, Map<String, String> selectedVersions) {
+        this.out = out;
+        this.format = format;
+        this.maxDepth = maxDepth;
+        this.selectedVersions = selectedVersions;
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            var c = buffer[i];
+            if (c == '\n') {
+                line(line.toString());
+                line.setLength(0);
+            } else if (c != '\r') {
+                line.append(c);
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        out.flush();
+    }
+
+    @Override
+    public void close() {
+        if (!line.isEmpty()) {
+            line(line.toString());
+            line.setLength(0);
+        }
+        start();
+        if (format == TreeFormat.dot) {
+            out.println("}");
+        }
+        out.flush();
+    }
+
+    private void start() {
+        if (!started && format == TreeFormat.dot) {
+            out.println("digraph dependencies {");
+            out.println("  node [shape=box];");
+        }
+        started = true;
+    }
+
+    private void line(String text) {
+        if (text.isBlank()) {
+            return;
+        }
+        start();
+
+        var indent = 0;
+        while (indent < text.length() && isIndentation(text.charAt(indent))) {
+            indent++;
+        }
+        if (skipBelow >= 0 && indent > skipBelow) {
+            return;
+        }
+        skipBelow = -1;
+
+        var tokens = new ArrayList<>(Arrays.asList(text.substring(indent).trim().split("\\s+")));
+        var included = true;
+        if (tokens.size() > 1 && (tokens.get(0).equals(".") || tokens.get(0).equalsIgnoreCase("X"))) {
+            included = tokens.remove(0).equals(".");
+        }
+        var library = tokens.get(0);
+        var version = tokens.size() > 1 ? tokens.get(1) : "";
+        // Kept as the resolver wrote it, since versions and reasons can hold any of the
+        // characters that would otherwise look like punctuation around them
+        var reason = tokens.size() > 2 ? String.join(" ", tokens.subList(2, tokens.size())) : "";
+
+        while (!ancestors.isEmpty() && ancestors.peek().indent() >= indent) {
+            ancestors.pop();
+        }
+        var parent = ancestors.peek();
+        var depth = ancestors.size();
+        var id = nextId++;
+        var key = library + " " + version;
+
+        if (parent != null) {
+            withChildren.add(parent.key());
+        }
+        // Repeats of a library with nothing below it are left as they are, since there is nothing to skip
+        var seeAlso = included && withChildren.contains(key) ? expanded.get(key) : null;
+        var selected = selectedVersions.get(library.replace('/', ':'));
+        var note = new ArrayList<String>();
+        if (!reason.isEmpty()) {
+            note.add(reason);
+        }
+        if (!included && selected != null && !selected.equals(version)) {
+            note.add(selected + " selected");
+        }
+        var why = included && reason.isEmpty() ? whySelected(depth, version, selected) : null;
+        if (why != null) {
+            note.add(why);
+        }
+
+        switch (format) {
+            case text -> {
+                var rendered = new StringBuilder("  ".repeat(depth))
+                        .append(included ? ". " : "X ")
+                        .append(library);
+                if (!version.isEmpty()) {
+                    rendered.append(' ').append(version);
+                }
+                var textNote = new ArrayList<>(note);
+                if (seeAlso != null) {
+                    textNote.add("see above");
+                }
+                if (!textNote.isEmpty()) {
+                    rendered.append(" (").append(String.join(", ", textNote)).append(')');
+                }
+                out.println(rendered);
+            }
+            case json -> {
+                var node = Json.objectBuilder()
+                        .put("id", Json.of(id))
+                        .put("parent", parent == null ? Json.ofNull() : Json.of(parent.id()))
+                        .put("depth", Json.of(depth))
+                        .put("library", Json.of(library))
+                        .put("version", Json.of(version))
+                        .put("included", Json.of(included))
+                        .put("reason", reason.isEmpty() ? Json.ofNull() : Json.of(reason))
+                        .put("why", why == null ? Json.ofNull() : Json.of(why))
+                        .put("selectedVersion", selected == null ? Json.ofNull() : Json.of(selected))
+                        .put("seeAlso", seeAlso == null ? Json.ofNull() : Json.of(seeAlso));
+                out.println(Json.writeString(node.build()));
+            }
+            case dot -> {
+                var existing = dotNodes.get(key + (included ? "" : " X"));
+                var nodeId = existing == null ? id : existing;
+                if (existing == null) {
+                    dotNodes.put(key + (included ? "" : " X"), id);
+                    var label = library + (version.isEmpty() ? "" : "\n" + version)
+                            + (note.isEmpty() ? "" : "\n" + String.join(", ", note));
+                    out.println("  n" + id + " [label=" + quote(label) + (included ? "" : ", style=dashed") + "];");
+                }
+                if (parent != null) {
+                    out.println("  n" + parent.id() + " -> n" + nodeId + (included ? "" : " [style=dashed]") + ";");
+                }
+                // Edges come from the node each library was first drawn as
+                id = nodeId;
+            }
+        }
+
+        ancestors.push(new Node(indent, id, key));
+        if (seeAlso != null || (maxDepth > 0 && depth + 1 >= maxDepth)) {
+            skipBelow = indent;
+        } else if (included) {
+            expanded.putIfAbsent(key, id);
+        }
+    }
+
+    /*
+     * Why an included node's version is the one used, for when the resolver didn't say. Top
+     * level dependencies always win, and otherwise the newest version anything asked for does.
+     */
+    private static String whySelected(int depth, String version, String selected) {
+        if (depth == 0) {
+            return "top level";
+        } else if (selected == null || selected.equals(version)) {
+            return "newest requested";
+        } else {
+            return selected + " selected";
+        }
+    }
+
+    private static boolean isIndentation(char c) {
+        return Character.isWhitespace(c) || "|+\\`-│├└─".indexOf(c) >= 0;
+    }
+
+    private static String quote(String label) {
+        return "\"" + label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+}
@@ -0,0 +1,59 @@
+package dev.mccue.resolve.cli;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * What is needed to ask a repository whether a cached file has changed, kept beside it.
+ *
+ * <p>For {@code maven-metadata.xml} they are stored in {@code .maven-metadata.xml.validators}.
+ *
+ * <pre>
+ * checked 1718000000000
+ * etag "5f3a-61b2c"
+ * lastModified Tue, 04 Jun 2024 10:15:00 GMT
+ * </pre>
+ *
+ * <p>{@code checked} is when the repository last confirmed the file was current.
+ */
+record Validators(long checked, Optional<String> etag, Optional<String> lastModified) {
+    static Path file(Path cached) {
+        return cached.resolveSibling("." + cached.getFileName() + ".validators");
+    }
+
+    static Optional<Validators> read(Path cached) {
+        try {
+            long checked = -1;
+            String etag = null;
+            String lastModified = null;
+            for (var line : Files.readAllLines(file(cached))) {
+                var parts = line.split(" ", 2);
+                if (parts.length != 2) {
+                    continue;
+                }
+                switch (parts[0]) {
+                    case "checked" -> checked = Long.parseLong(parts[1]);
+                    case "etag" -> etag = parts[1];
+                    case "lastModified" -> lastModified = parts[1];
+                    default -> {}
+                }
+            }
+            if (checked < 0) {
+                return Optional.empty();
+            }
+            return Optional.of(new Validators(checked, Optional.ofNullable(etag), Optional.ofNullable(lastModified)));
+        } catch (IOException | RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    void write(Path cached) throws IOException {
+        var contents = new StringBuilder();
+        contents.append("checked ").append(checked).append('\n');
+        etag.ifPresent(etag -> contents.append("etag ").append(etag).append('\n'));
+        lastModified.ifPresent(lastModified -> contents.append("lastModified ").append(lastModified).append('\n'));
+        AtomicFiles.writeString(file(cached), contents.toString());
+    }
+}
@@ -0,0 +1,112 @@
+package dev.mccue.resolve.cli;
+
+import java.io.PrintWriter;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a command again whenever one of its input files changes, until interrupted.
+ *
+ * <p>The directories holding the inputs are watched rather than the files themselves, since
+ * editors often save by writing a new file and renaming it over the old one. Changes that
+ * arrive in a burst, like a save that touches a file twice or a checkout that touches several,
+ * are waited out and handled as one. If the contents of the inputs end up the same as for the
+ * last run, nothing is run.
+ */
+final class Watch {
+    private static final Duration QUIET_PERIOD = Duration.ofMillis(200);
+
+    private final List<Path> inputs;
+    private final PrintWriter err;
+
+    Watch(Collection<Path> inputs, PrintWriter err) {
+        this.inputs = inputs.stream()
+                .map(input -> input.toAbsolutePath().normalize())
+                .distinct()
+                .toList();
+        this.err = err;
+    }
+
+    int run(Callable<Integer> command) throws Exception {
+        try (var watchService = FileSystems.getDefault().newWatchService()) {
+            var directories = new LinkedHashSet<Path>();
+            for (var input : inputs) {
+                directories.add(input.getParent());
+            }
+            for (var directory : directories) {
+                directory.register(
+                        watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE
+                );
+            }
+
+            var fingerprint = fingerprint();
+            runOnce(command, "Ran");
+            err.println("Watching " + inputs.size() + " input" + (inputs.size() == 1 ? "" : "s") + " for changes");
+            err.flush();
+
+            while (true) {
+                var changed = new TreeSet<Path>();
+                var key = watchService.take();
+                do {
+                    changed.addAll(changedInputs(key));
+                    key.reset();
+                    key = watchService.poll(QUIET_PERIOD.toMillis(), TimeUnit.MILLISECONDS);
+                } while (key != null);
+
+                if (changed.isEmpty()) {
+                    continue;
+                }
+                var newFingerprint = fingerprint();
+                if (newFingerprint.equals(fingerprint)) {
+                    continue;
+                }
+                fingerprint = newFingerprint;
+
+                err.println("Changed: " + String.join(", ", changed.stream().map(path -> path.getFileName().toString()).toList()));
+                err.flush();
+                runOnce(command, "Updated");
+            }
+        }
+    }
+
+    private void runOnce(Callable<Integer> command, String verb) throws Exception {
+        var start = System.nanoTime();
+        var exitCode = command.call();
+        var millis = (System.nanoTime() - start) / 1_000_000;
+        err.println(verb + " in " + millis + " ms" + (exitCode == 0 ? "" : ", exited with " + exitCode));
+        err.flush();
+    }
+
+    private List<Path> changedInputs(WatchKey key) {
+        var directory = (Path) key.watchable();
+        var changed = new ArrayList<Path>();
+        for (var event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Lost track of what happened, so assume it was everything
+                changed.addAll(inputs);
+            } else if (event.context() instanceof Path name && inputs.contains(directory.resolve(name))) {
+                changed.add(directory.resolve(name));
+            }
+        }
+        return changed;
+    }
+
+    private String fingerprint() {
+        var lines = new ArrayList<String>();
+        for (var input : inputs) {
+            try {
+                lines.add(input + ":" + Digests.sha256(input));
+            } catch (RuntimeException e) {
+                // Missing for now, such as between an editor deleting and recreating it
+                lines.add(input + ":");
+            }
+        }
+        return Digests.sha256(lines);
+    }
+}
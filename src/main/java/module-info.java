@@ -8,6 +8,7 @@ module dev.mccue.resolve.cli {
     requires dev.mccue.purl;
     requires info.picocli;
     requires java.xml;
+    requires jdk.jfr;
     requires org.tomlj;
     requires dev.mccue.guava.graph;
 
@@ -1,5 +1,6 @@
 module dev.mccue.jresolve.cli.uber {
     requires java.xml;
+    requires jdk.jfr;
     requires java.net.http;
 
     provides java.util.spi.ToolProvider
@@ -0,0 +1,251 @@
+package dev.mccue.resolve.cli;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Downloads from a {@link RepositoryServer} that drops, stalls or delays requests on request.
+ */
+class ArtifactDownloaderTest {
+    private static final int SIZE = 256 * 1024;
+
+    @TempDir
+    Path temp;
+
+    private Path repository;
+    private Path cache;
+    private RepositoryServer server;
+    private HttpClient client;
+    private final StringWriter errors = new StringWriter();
+
+    @BeforeEach
+    void start() throws IOException {
+        repository = Files.createDirectories(temp.resolve("repository"));
+        cache = Files.createDirectories(temp.resolve("cache"));
+        server = RepositoryServer.start(repository);
+        client = HttpClient.newHttpClient();
+    }
+
+    @AfterEach
+    void stop() {
+        client.close();
+        server.close();
+    }
+
+    private byte[] publish(String path, long seed) throws IOException {
+        var contents = new byte[SIZE];
+        new Random(seed).nextBytes(contents);
+        var file = repository.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, contents);
+        return contents;
+    }
+
+    private ArtifactDownloader.Download download(String path) {
+        return new ArtifactDownloader.Download(server.url().resolve(path), cache.resolve(path), client);
+    }
+
+    private ArtifactDownloader downloader(int parallelism, int perHostParallelism, int retries, Duration requestTimeout) {
+        return new ArtifactDownloader(
+                new DownloadLimits(parallelism, perHostParallelism),
+                new CacheLocks(new CacheLayout(cache)),
+                Optional.empty(),
+                new ArtifactDownloader.RetryPolicy(retries, requestTimeout, Duration.ofMinutes(1)),
+                new PrintWriter(errors, true)
+        );
+    }
+
+    @Test
+    void resumesFromWhereADroppedConnectionLeftOff() throws Exception {
+        var contents = publish("a/b/1.0/b-1.0.jar", 1);
+        server.disconnect(1, SIZE / 4);
+
+        var failures = downloader(4, 4, 3, Duration.ofSeconds(5)).downloadAll(List.of(download("a/b/1.0/b-1.0.jar")));
+
+        assertEquals(List.of(), failures);
+        assertArrayEquals(contents, Files.readAllBytes(cache.resolve("a/b/1.0/b-1.0.jar")));
+        assertTrue(errors.toString().contains("1 resumed"), errors.toString());
+        assertFalse(Files.exists(cache.resolve("a/b/1.0/.b-1.0.jar.part")));
+    }
+
+    @Test
+    void givesUpAfterTheLastRetry() throws Exception {
+        publish("a/b/1.0/b-1.0.jar", 2);
+        server.disconnect(Integer.MAX_VALUE, 1024);
+
+        var failures = downloader(4, 4, 2, Duration.ofSeconds(5)).downloadAll(List.of(download("a/b/1.0/b-1.0.jar")));
+
+        assertEquals(1, failures.size());
+        assertFalse(failures.get(0).leftForResolver());
+        assertTrue(failures.get(0).reason().startsWith("gave up after 3 attempts"), failures.get(0).reason());
+        assertFalse(Files.exists(cache.resolve("a/b/1.0/b-1.0.jar")));
+        // What did arrive is kept for a later run to resume
+        assertTrue(Files.exists(cache.resolve("a/b/1.0/.b-1.0.jar.part")));
+    }
+
+    @Test
+    void retriesADownloadThatStalls() throws Exception {
+        var contents = publish("a/b/1.0/b-1.0.jar", 3);
+        server.stall(1, SIZE / 2, Duration.ofSeconds(3));
+
+        var failures = downloader(4, 4, 3, Duration.ofMillis(500)).downloadAll(List.of(download("a/b/1.0/b-1.0.jar")));
+
+        assertEquals(List.of(), failures);
+        assertArrayEquals(contents, Files.readAllBytes(cache.resolve("a/b/1.0/b-1.0.jar")));
+        assertTrue(errors.toString().contains("1 resumed"), errors.toString());
+    }
+
+    @Test
+    void checksTheSha1TheRepositoryPublishes() throws Exception {
+        var contents = publish("a/b/1.0/b-1.0.jar", 4);
+        Files.writeString(repository.resolve("a/b/1.0/b-1.0.jar.sha1"), sha1(contents) + "  b-1.0.jar\n");
+
+        var failures = downloader(4, 4, 3, Duration.ofSeconds(5)).downloadAll(List.of(download("a/b/1.0/b-1.0.jar")));
+
+        assertEquals(List.of(), failures);
+        // The .sha1 and then the jar, without asking for any other checksum
+        assertEquals(2, server.requests());
+    }
+
+    @Test
+    void rejectsAnArtifactThatDoesNotMatchItsChecksum() throws Exception {
+        publish("a/b/1.0/b-1.0.jar", 5);
+        Files.writeString(repository.resolve("a/b/1.0/b-1.0.jar.sha1"), "0".repeat(40));
+
+        var failures = downloader(4, 4, 3, Duration.ofSeconds(5)).downloadAll(List.of(download("a/b/1.0/b-1.0.jar")));
+
+        assertEquals(1, failures.size());
+        assertFalse(failures.get(0).leftForResolver());
+        assertTrue(failures.get(0).reason().startsWith("expected SHA-1"), failures.get(0).reason());
+        assertFalse(Files.exists(cache.resolve("a/b/1.0/b-1.0.jar")));
+    }
+
+    @Test
+    void downloadsArtifactsConcurrently() throws Exception {
+        server.delay(Duration.ofMillis(100));
+        var contents = new ArrayList<byte[]>();
+        var downloads = new ArrayList<ArtifactDownloader.Download>();
+        for (int i = 0; i < 8; i++) {
+            var path = "a/b" + i + "/1.0/b" + i + "-1.0.jar";
+            contents.add(publish(path, 10 + i));
+            downloads.add(download(path));
+        }
+
+        var failures = downloader(8, 8, 3, Duration.ofSeconds(5)).downloadAll(downloads);
+
+        assertEquals(List.of(), failures);
+        for (int i = 0; i < 8; i++) {
+            assertArrayEquals(contents.get(i), Files.readAllBytes(downloads.get(i).target()));
+        }
+        assertTrue(server.peakConcurrentRequests() > 1, "peak " + server.peakConcurrentRequests());
+        assertTrue(errors.toString().startsWith("Downloaded 8 artifacts"), errors.toString());
+    }
+
+    @Test
+    void staysWithinThePerHostLimit() throws Exception {
+        server.delay(Duration.ofMillis(100));
+        var downloads = new ArrayList<ArtifactDownloader.Download>();
+        for (int i = 0; i < 8; i++) {
+            var path = "a/b" + i + "/1.0/b" + i + "-1.0.jar";
+            publish(path, 20 + i);
+            downloads.add(download(path));
+        }
+
+        var failures = downloader(8, 2, 3, Duration.ofSeconds(5)).downloadAll(downloads);
+
+        assertEquals(List.of(), failures);
+        assertEquals(2, server.peakConcurrentRequests());
+        for (var download : downloads) {
+            assertTrue(Files.exists(download.target()), download.target().toString());
+        }
+    }
+
+    @Test
+    void sharesThePerHostLimitWithOtherDownloaders() throws Exception {
+        server.delay(Duration.ofMillis(100));
+        var limits = new DownloadLimits(8, 2);
+        var batches = List.of(new ArrayList<ArtifactDownloader.Download>(), new ArrayList<ArtifactDownloader.Download>());
+        for (int i = 0; i < 8; i++) {
+            var path = "a/b" + i + "/1.0/b" + i + "-1.0.jar";
+            publish(path, 40 + i);
+            batches.get(i % 2).add(download(path));
+        }
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var results = new ArrayList<Future<List<ArtifactDownloader.Failure>>>();
+            for (var batch : batches) {
+                results.add(executor.submit(() -> new ArtifactDownloader(
+                        limits,
+                        new CacheLocks(new CacheLayout(cache)),
+                        Optional.empty(),
+                        new ArtifactDownloader.RetryPolicy(3, Duration.ofSeconds(5), Duration.ofMinutes(1)),
+                        new PrintWriter(errors, true)
+                ).downloadAll(batch)));
+            }
+            for (var result : results) {
+                assertEquals(List.of(), result.get());
+            }
+        }
+
+        assertEquals(2, server.peakConcurrentRequests());
+    }
+
+    @Test
+    void reportsEveryFailureTogether() throws Exception {
+        publish("a/ok/1.0/ok-1.0.jar", 30);
+        publish("a/corrupt/1.0/corrupt-1.0.jar", 31);
+        Files.writeString(repository.resolve("a/corrupt/1.0/corrupt-1.0.jar.sha1"), "0".repeat(40));
+
+        var failures = downloader(4, 4, 3, Duration.ofSeconds(5)).downloadAll(List.of(
+                download("a/ok/1.0/ok-1.0.jar"),
+                download("a/missing/1.0/missing-1.0.jar"),
+                download("a/corrupt/1.0/corrupt-1.0.jar"),
+                download("a/absent/1.0/absent-1.0.jar")
+        ));
+
+        // In order of where they were downloaded from, whatever order they failed in
+        assertEquals(
+                List.of(
+                        "a/absent/1.0/absent-1.0.jar",
+                        "a/corrupt/1.0/corrupt-1.0.jar",
+                        "a/missing/1.0/missing-1.0.jar"
+                ),
+                failures.stream().map(failure -> server.url().relativize(failure.download().uri()).toString()).toList()
+        );
+        assertEquals("HTTP 404", failures.get(0).reason());
+        assertTrue(failures.get(0).leftForResolver());
+        assertFalse(failures.get(1).leftForResolver());
+        assertTrue(failures.get(1).reason().startsWith("expected SHA-1"), failures.get(1).reason());
+        assertEquals("HTTP 404", failures.get(2).reason());
+        assertTrue(Files.exists(cache.resolve("a/ok/1.0/ok-1.0.jar")));
+        assertTrue(
+                errors.toString().contains("Downloaded 1 artifacts")
+                        && errors.toString().contains(", 1 failed, 2 left for the resolver"),
+                errors.toString()
+        );
+    }
+
+    private static String sha1(byte[] contents) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(contents));
+    }
+}
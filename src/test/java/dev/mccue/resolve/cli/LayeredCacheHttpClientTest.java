@@ -0,0 +1,97 @@
+package dev.mccue.resolve.cli;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Serves a jar bigger than one chunk from a read-only layer, without touching the network.
+ */
+class LayeredCacheHttpClientTest {
+    private static final URI JAR = URI.create("https://repo1.maven.org/maven2/a/b/1.0/b-1.0.jar");
+
+    @TempDir
+    Path temp;
+
+    private byte[] contents;
+    private HttpClient network;
+    private HttpClient client;
+
+    @BeforeEach
+    void createLayer() throws IOException {
+        var layer = temp.resolve("layer");
+        var file = new CacheLayout(layer).pathOf(JAR);
+        Files.createDirectories(file.getParent());
+        contents = new byte[300 * 1024 + 17];
+        new Random(1).nextBytes(contents);
+        Files.write(file, contents);
+        network = HttpClient.newHttpClient();
+        client = new LayeredCacheHttpClient(network, CacheLayers.of(List.of(layer)));
+    }
+
+    @AfterEach
+    void close() {
+        network.close();
+    }
+
+    @Test
+    void streamsTheWholeFile() throws Exception {
+        var response = client.send(HttpRequest.newBuilder(JAR).GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+
+        assertEquals(200, response.statusCode());
+        assertEquals(contents.length, response.headers().firstValueAsLong("Content-Length").orElseThrow());
+        try (var body = response.body()) {
+            assertArrayEquals(contents, body.readAllBytes());
+        }
+    }
+
+    @Test
+    void answersARangeWithTheRestOfTheFile() throws Exception {
+        var offset = 100_000;
+        var response = client.send(
+                HttpRequest.newBuilder(JAR).header("Range", "bytes=" + offset + "-").GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray()
+        );
+
+        assertEquals(206, response.statusCode());
+        assertEquals(
+                "bytes " + offset + "-" + (contents.length - 1) + "/" + contents.length,
+                response.headers().firstValue("Content-Range").orElseThrow()
+        );
+        assertArrayEquals(Arrays.copyOfRange(contents, offset, contents.length), response.body());
+    }
+
+    @Test
+    void refusesARangePastTheEnd() throws Exception {
+        var response = client.send(
+                HttpRequest.newBuilder(JAR).header("Range", "bytes=" + contents.length + "-").GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray()
+        );
+
+        assertEquals(416, response.statusCode());
+        assertEquals("bytes */" + contents.length, response.headers().firstValue("Content-Range").orElseThrow());
+        assertEquals(0, response.body().length);
+    }
+
+    @Test
+    void servesAsynchronouslyToo() throws Exception {
+        var response = client.sendAsync(HttpRequest.newBuilder(JAR).GET().build(), HttpResponse.BodyHandlers.ofByteArray())
+                .get();
+
+        assertArrayEquals(contents, response.body());
+    }
+}
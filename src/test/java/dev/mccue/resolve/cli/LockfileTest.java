@@ -0,0 +1,37 @@
+package dev.mccue.resolve.cli;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class LockfileTest {
+    private static final String REPOSITORIES = "{}";
+
+    @Test
+    void reorderedDependenciesHashDifferently() {
+        // The recorded path is in declaration order, so reusing it would change which jar wins
+        assertNotEquals(
+                Lockfile.inputHash(List.of("pkg:maven/org.slf4j/slf4j-api@2.0.9", "pkg:maven/org.slf4j/slf4j-simple@2.0.9"), REPOSITORIES),
+                Lockfile.inputHash(List.of("pkg:maven/org.slf4j/slf4j-simple@2.0.9", "pkg:maven/org.slf4j/slf4j-api@2.0.9"), REPOSITORIES)
+        );
+    }
+
+    @Test
+    void surroundingWhitespaceDoesNotChangeTheHash() {
+        assertEquals(
+                Lockfile.inputHash(List.of("pkg:maven/org.slf4j/slf4j-api@2.0.9"), REPOSITORIES),
+                Lockfile.inputHash(List.of("  pkg:maven/org.slf4j/slf4j-api@2.0.9\t"), REPOSITORIES)
+        );
+    }
+
+    @Test
+    void repositoriesChangeTheHash() {
+        assertNotEquals(
+                Lockfile.inputHash(List.of("pkg:maven/org.slf4j/slf4j-api@2.0.9"), REPOSITORIES),
+                Lockfile.inputHash(List.of("pkg:maven/org.slf4j/slf4j-api@2.0.9"), "{\"central\": {\"url\": \"https://example.com\"}}")
+        );
+    }
+}
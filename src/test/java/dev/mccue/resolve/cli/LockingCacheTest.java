@@ -0,0 +1,97 @@
+package dev.mccue.resolve.cli;
+
+import dev.mccue.resolve.Cache;
+import dev.mccue.resolve.CacheKey;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LockingCacheTest {
+    private static final CacheKey POM = new CacheKey(List.of("https", "repo1.maven.org", "maven2", "a", "b", "1.0", "b-1.0.pom"));
+
+    @TempDir
+    Path temp;
+
+    private LockingCache cache() {
+        var layout = new CacheLayout(temp);
+        return new LockingCache(new Cache() {
+            @Override
+            public Path fetchIfAbsent(CacheKey key, Supplier<InputStream> data) {
+                throw new AssertionError("Writes go through the lock, not the resolver's cache");
+            }
+
+            @Override
+            public Optional<Path> probe(CacheKey key) {
+                var path = layout.pathOf(key.components());
+                return Files.exists(path) ? Optional.of(path) : Optional.empty();
+            }
+        }, layout);
+    }
+
+    @Test
+    void fetchesAFileNeededByManyThreadsOnce() throws Exception {
+        var cache = cache();
+        var fetches = new AtomicInteger();
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        Supplier<InputStream> slowPom = () -> {
+            fetches.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return new ByteArrayInputStream("<project/>".getBytes(StandardCharsets.UTF_8));
+        };
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var paths = new ArrayList<Future<Path>>();
+            for (int i = 0; i < 8; i++) {
+                paths.add(executor.submit(() -> cache.fetchIfAbsent(POM, slowPom)));
+            }
+            started.await();
+            // Nothing is visible until the one fetch has finished writing
+            assertEquals(Optional.empty(), cache.probe(POM));
+            release.countDown();
+            for (var path : paths) {
+                assertEquals("<project/>", Files.readString(path.get()));
+            }
+        }
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    void leavesNothingBehindWhenAFetchFails() throws Exception {
+        var cache = cache();
+
+        assertThrows(UncheckedIOException.class, () -> cache.fetchIfAbsent(POM, () -> new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        }));
+
+        var directory = new CacheLayout(temp).pathOf(POM.components()).getParent();
+        try (var files = Files.list(directory)) {
+            assertEquals(List.of(), files.toList());
+        }
+    }
+}
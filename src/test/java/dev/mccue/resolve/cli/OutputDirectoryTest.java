@@ -0,0 +1,68 @@
+package dev.mccue.resolve.cli;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OutputDirectoryTest {
+    @TempDir
+    Path temp;
+
+    private Path cache;
+    private Path jar;
+    private Path libs;
+
+    @BeforeEach
+    void createCache() throws IOException {
+        cache = temp.resolve("cache");
+        jar = cache.resolve("https/repo1.maven.org/maven2/a/b/1.0/b-1.0.jar");
+        Files.createDirectories(jar.getParent());
+        Files.writeString(jar, "contents");
+        Files.setLastModifiedTime(jar, FileTime.from(Instant.parse("2024-06-04T10:15:00Z")));
+        libs = temp.resolve("libs");
+    }
+
+    private OutputDirectory.Result sync() throws IOException {
+        return new OutputDirectory(libs, new CacheLayout(cache), LinkMode.copy, true, new PrintWriter(Writer.nullWriter()))
+                .populate(Map.of("b-1.0.jar", jar));
+    }
+
+    @Test
+    void copiesKeepTheModificationTimeOfTheCachedArtifact() throws IOException {
+        assertEquals(new OutputDirectory.Result(1, 0, 0), sync());
+
+        assertEquals(Files.getLastModifiedTime(jar), Files.getLastModifiedTime(libs.resolve("b-1.0.jar")));
+        assertEquals(new OutputDirectory.Result(0, 1, 0), sync());
+    }
+
+    @Test
+    void rewritesACopyWithTheSameSizeButDifferentContents() throws IOException {
+        sync();
+        Files.writeString(libs.resolve("b-1.0.jar"), "tampered");
+
+        assertEquals(new OutputDirectory.Result(1, 0, 0), sync());
+        assertEquals("contents", Files.readString(libs.resolve("b-1.0.jar")));
+    }
+
+    @Test
+    void keepsACopyThatWasOnlyTouched() throws IOException {
+        sync();
+        var copy = libs.resolve("b-1.0.jar");
+        Files.setLastModifiedTime(copy, FileTime.from(Instant.parse("2025-01-01T00:00:00Z")));
+
+        assertEquals(new OutputDirectory.Result(0, 1, 0), sync());
+        // Hashed once, and recognized without hashing from then on
+        assertEquals(Files.getLastModifiedTime(jar), Files.getLastModifiedTime(copy));
+    }
+}
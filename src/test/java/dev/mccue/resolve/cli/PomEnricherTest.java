@@ -0,0 +1,115 @@
+package dev.mccue.resolve.cli;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Only the root's {@code <dependencies>} may change, so everything around it is compared byte
+ * for byte, with CRLF line endings, tabs and markup that only looks like {@code <dependencies>}.
+ */
+class PomEnricherTest {
+    private static final List<MavenArtifact> DEPENDENCIES = List.of(
+            new MavenArtifact("org.slf4j", "slf4j-api", "2.0.9", Optional.empty()),
+            new MavenArtifact("org.openjfx", "javafx-base", "21", Optional.of("linux"))
+    );
+
+    private static final String BEFORE = String.join("\r\n",
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+            "<!-- <dependencies> here are generated, do not edit -->",
+            "<project xmlns=\"http://maven.apache.org/POM/4.0.0\"   xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'>",
+            "\t<modelVersion>4.0.0</modelVersion>",
+            "\t<!-- keep <dependencies> last, after <dependencyManagement> -->",
+            "\t<dependencyManagement>",
+            "\t\t<dependencies>",
+            "\t\t\t<dependency><groupId>org.example</groupId><artifactId>bom</artifactId><version>1</version></dependency>",
+            "\t\t</dependencies>",
+            "\t</dependencyManagement>",
+            "\t<description><![CDATA[Says <dependencies> without meaning it]]></description>",
+            "\t"
+    );
+
+    private static final String AFTER = String.join("\r\n",
+            "",
+            "\t<build   >  <!-- </dependencies> -->",
+            "\t</build>",
+            "</project>",
+            ""
+    );
+
+    private static final String BLOCK = String.join("\r\n",
+            "<dependencies>",
+            "\t\t<dependency>",
+            "\t\t\t<groupId>org.slf4j</groupId>",
+            "\t\t\t<artifactId>slf4j-api</artifactId>",
+            "\t\t\t<version>2.0.9</version>",
+            "\t\t</dependency>",
+            "\t\t<dependency>",
+            "\t\t\t<groupId>org.openjfx</groupId>",
+            "\t\t\t<artifactId>javafx-base</artifactId>",
+            "\t\t\t<version>21</version>",
+            "\t\t\t<classifier>linux</classifier>",
+            "\t\t</dependency>",
+            "\t</dependencies>"
+    );
+
+    private static String enrich(String pom) throws Exception {
+        // Through bytes, as --enrich-pom reads and writes the file
+        var read = new String(pom.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+        return PomEnricher.enrich(read, DEPENDENCIES);
+    }
+
+    @Test
+    void replacesOnlyTheRootDependencies() throws Exception {
+        var old = String.join("\r\n",
+                "<dependencies>",
+                "\t\t<dependency>",
+                "\t\t\t<groupId>junit</groupId> <artifactId>junit</artifactId> <version>4.13.2</version>",
+                "\t\t</dependency>",
+                "\t</dependencies>"
+        );
+
+        var enriched = enrich(BEFORE + old + AFTER);
+
+        assertArrayEquals(
+                (BEFORE + BLOCK + AFTER).getBytes(StandardCharsets.UTF_8),
+                enriched.getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+    @Test
+    void addsDependenciesAsTheLastChildOfTheRoot() throws Exception {
+        var pom = String.join("\r\n",
+                "<project>",
+                "\t<!-- <dependencies> come from jresolve -->",
+                "\t<modelVersion>4.0.0</modelVersion>",
+                "</project>",
+                ""
+        );
+
+        assertEquals(
+                String.join("\r\n",
+                        "<project>",
+                        "\t<!-- <dependencies> come from jresolve -->",
+                        "\t<modelVersion>4.0.0</modelVersion>",
+                        "\t" + BLOCK,
+                        "</project>",
+                        ""
+                ),
+                enrich(pom)
+        );
+    }
+
+    @Test
+    void changesNothingTheSecondTime() throws Exception {
+        var once = enrich(BEFORE + "<dependencies/>" + AFTER);
+
+        assertEquals(BEFORE + BLOCK + AFTER, once);
+        assertEquals(once, enrich(once));
+    }
+}
@@ -0,0 +1,257 @@
+package dev.mccue.resolve.cli;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves a directory as a maven repository over HTTP on the loopback interface, so tests
+ * and benchmarks go through the same client code as a real repository without a network.
+ *
+ * <p>Like a real repository it answers conditional and range requests, and it counts what it
+ * is asked for so a test or benchmark can tell how many round trips and bodies a run cost. It can also
+ * be told to cut off or stall downloads part way, to exercise retrying and resuming them, and
+ * to wait before answering, so that requests made together overlap.
+ */
+final class RepositoryServer implements AutoCloseable {
+    // RFC 1123 as HTTP requires it, which always has two digit days
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private volatile Duration latency = Duration.ZERO;
+    private final AtomicInteger disconnects = new AtomicInteger();
+    private volatile long disconnectAfter = 0;
+    private volatile Duration stallFor = Duration.ZERO;
+
+    private RepositoryServer(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    static RepositoryServer start(Path root) throws IOException {
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        // Platform threads, since the server's writes pin a virtual thread to its carrier and
+        // in the same process as the client that can starve the client of carriers to read with
+        var executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        var repositoryServer = new RepositoryServer(server, executor);
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                repositoryServer.serve(root, exchange);
+            }
+        });
+        server.start();
+        return repositoryServer;
+    }
+
+    /**
+     * Every request answered so far.
+     */
+    long requests() {
+        return requests.sum();
+    }
+
+    /**
+     * Requests answered with 304 Not Modified so far.
+     */
+    long notModified() {
+        return notModified.sum();
+    }
+
+    /**
+     * The most requests that were waiting to be answered at the same time so far, which is only
+     * measured while there is a {@link #delay} to wait for.
+     */
+    int peakConcurrentRequests() {
+        return peakInFlight.get();
+    }
+
+    URI url() {
+        var address = server.getAddress();
+        return URI.create("http://" + address.getHostString() + ":" + address.getPort() + "/");
+    }
+
+    /**
+     * A --maven-repositories-file that points central at this server, so nothing a
+     * test or benchmark resolves can reach the real central.
+     */
+    String repositoriesFile() {
+        var url = url().toString();
+        return "{\"central\": {\"url\": \"" + url.substring(0, url.length() - 1) + "\"}}";
+    }
+
+    private void serve(Path root, HttpExchange exchange) throws IOException {
+        requests.increment();
+        if (latency.isPositive()) {
+            // Counted only until answering starts, since a client may have read all of a body
+            // and moved on to its next request before this thread is done with the exchange
+            peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted before answering", e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+        var method = exchange.getRequestMethod();
+        var file = root.resolve(exchange.getRequestURI().getPath().substring(1)).normalize();
+        if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        var lastModified = Files.getLastModifiedTime(file).toInstant().truncatedTo(ChronoUnit.SECONDS);
+        var etag = "\"" + Long.toHexString(Files.size(file)) + "-" + Long.toHexString(lastModified.getEpochSecond()) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Last-Modified", HTTP_DATE.format(lastModified));
+        if (isNotModified(exchange, etag, lastModified)) {
+            notModified.increment();
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        if (method.equals("HEAD")) {
+            exchange.getResponseHeaders().set("Content-Length", Long.toString(Files.size(file)));
+            exchange.sendResponseHeaders(200, -1);
+        } else if (method.equals("GET")) {
+            var size = Files.size(file);
+            var offset = rangeStart(exchange);
+            if (offset >= size && offset > 0) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            if (offset > 0) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + offset + "-" + (size - 1) + "/" + size);
+                exchange.sendResponseHeaders(206, size - offset);
+            } else {
+                exchange.sendResponseHeaders(200, size);
+            }
+
+            var length = size - offset;
+            var dropped = disconnects.getAndUpdate(remaining -> Math.max(0, remaining - 1)) > 0;
+            try (var contents = Files.newInputStream(file)) {
+                contents.skipNBytes(offset);
+                var body = exchange.getResponseBody();
+                var remaining = Math.min(length, dropped ? disconnectAfter : length);
+                var buffer = new byte[64 * 1024];
+                while (remaining > 0) {
+                    var read = contents.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    body.write(buffer, 0, read);
+                    remaining -= read;
+                }
+                body.flush();
+                if (dropped) {
+                    if (stallFor.isPositive()) {
+                        try {
+                            Thread.sleep(stallFor);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    // Failing the exchange makes the server close the connection
+                    throw new IOException("Disconnected after " + disconnectAfter + " bytes");
+                }
+            }
+        } else {
+            exchange.sendResponseHeaders(405, -1);
+        }
+    }
+
+    /*
+     * The first byte asked for by a "Range: bytes=N-" header, which is all a resumed download
+     * sends, or 0 for anything else.
+     */
+    private static long rangeStart(HttpExchange exchange) {
+        var range = exchange.getRequestHeaders().getFirst("Range");
+        if (range == null || !range.startsWith("bytes=") || !range.endsWith("-")) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(range.substring("bytes=".length(), range.length() - 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /*
+     * If-None-Match takes precedence over If-Modified-Since when both are sent.
+     */
+    private static boolean isNotModified(HttpExchange exchange, String etag, Instant lastModified) {
+        var headers = exchange.getRequestHeaders();
+        var ifNoneMatch = headers.getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            return Arrays.stream(ifNoneMatch.split(","))
+                    .map(String::strip)
+                    .anyMatch(candidate -> candidate.equals(etag) || candidate.equals("*"));
+        }
+        var ifModifiedSince = headers.getFirst("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                return !lastModified.isAfter(Instant.from(HTTP_DATE.parse(ifModifiedSince)));
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops the connection partway through the next {@code count} downloads,
+     * after sending {@code afterBytes} of the body.
+     */
+    void disconnect(int count, long afterBytes) {
+        stall(count, afterBytes, Duration.ZERO);
+    }
+
+    /**
+     * Like {@link #disconnect}, but sends nothing more for {@code stallFor} before dropping
+     * the connection, as a repository that stops responding part way does.
+     */
+    void stall(int count, long afterBytes, Duration stallFor) {
+        this.disconnectAfter = afterBytes;
+        this.stallFor = stallFor;
+        disconnects.set(count);
+    }
+
+    /**
+     * Waits {@code latency} before answering each request from now on, as a distant
+     * repository does.
+     */
+    void delay(Duration latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+}
@@ -0,0 +1,101 @@
+package dev.mccue.resolve.cli;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Revalidates cached metadata against a {@link RepositoryServer} while a read-only cache
+ * layer holds a copy of the same file.
+ */
+class RevalidatorTest {
+    private static final String METADATA = "a/b/maven-metadata.xml";
+
+    @TempDir
+    Path temp;
+
+    private Path cache;
+    private RepositoryServer server;
+    private Repositories repositories;
+
+    @BeforeEach
+    void start() throws IOException {
+        var repository = Files.createDirectories(temp.resolve("repository"));
+        var layer = Files.createDirectories(temp.resolve("layer"));
+        cache = Files.createDirectories(temp.resolve("cache"));
+        server = RepositoryServer.start(repository);
+
+        var modified = FileTime.from(Instant.parse("2024-06-04T10:15:00Z"));
+        var published = repository.resolve(METADATA);
+        Files.createDirectories(published.getParent());
+        Files.writeString(published, "<metadata>current</metadata>");
+        Files.setLastModifiedTime(published, modified);
+
+        repositories = Repositories.fromJson(server.repositoriesFile(), false, CacheLayers.of(List.of(layer)));
+        var uri = uri();
+        for (var root : List.of(layer, cache)) {
+            var copy = new CacheLayout(root).pathOf(uri);
+            Files.createDirectories(copy.getParent());
+            Files.writeString(copy, "<metadata>current</metadata>");
+            Files.setLastModifiedTime(copy, modified);
+        }
+    }
+
+    @AfterEach
+    void stop() {
+        server.close();
+    }
+
+    private URI uri() {
+        return URI.create(repositories.central().url() + "/" + METADATA);
+    }
+
+    @Test
+    void asksTheRepositoryInsteadOfTheLayer() throws Exception {
+        var cached = new CacheLayout(cache).pathOf(uri());
+        var outcome = new Revalidator(new CacheLocks(new CacheLayout(cache))).revalidate(
+                uri(),
+                cached,
+                repositories.networkClient(repositories.central()),
+                Duration.ZERO
+        );
+
+        assertEquals(Revalidator.Outcome.NOT_MODIFIED, outcome);
+        assertEquals(1, server.requests());
+        assertEquals(1, server.notModified());
+        assertTrue(Validators.read(cached).isPresent());
+    }
+
+    @Test
+    void neverServesMetadataFromTheLayer() throws Exception {
+        var client = repositories.client(repositories.central());
+
+        var plain = client.send(HttpRequest.newBuilder(uri()).GET().build(), HttpResponse.BodyHandlers.ofString());
+        var conditional = client.send(
+                HttpRequest.newBuilder(uri())
+                        .header("If-None-Match", plain.headers().firstValue("ETag").orElseThrow())
+                        .GET()
+                        .build(),
+                HttpResponse.BodyHandlers.ofString()
+        );
+
+        assertEquals(200, plain.statusCode());
+        assertEquals(304, conditional.statusCode());
+        assertEquals(2, server.requests());
+        assertEquals(1, server.notModified());
+    }
+}
@@ -0,0 +1,95 @@
+package dev.mccue.resolve.cli;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Renders {@code print-tree.txt}, which is in the format {@link dev.mccue.resolve.Resolution#printTree}
+ * writes: two spaces of indentation per level, {@code .} or {@code X}, the library, its version
+ * and for omitted libraries the reason.
+ */
+class TreeRendererTest {
+    private static final Map<String, String> SELECTED = Map.of(
+            "org.example:app", "1.0-SNAPSHOT",
+            "org.example:lib", "2.1-SNAPSHOT",
+            "org.slf4j:slf4j-api", "2.0.9",
+            "com.fasterxml.jackson.core:jackson-databind", "2.17.0",
+            "com.fasterxml.jackson.core:jackson-annotations", "2.17.0",
+            "com.fasterxml.jackson.core:jackson-core", "2.17.0"
+    );
+
+    private static String render(TreeFormat format, int maxDepth) throws IOException {
+        String printed;
+        try (InputStream is = TreeRendererTest.class.getResourceAsStream("print-tree.txt")) {
+            printed = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        var rendered = new StringWriter();
+        try (var renderer = new TreeRenderer(new PrintWriter(rendered), format, maxDepth, SELECTED)) {
+            // Written in pieces that don't line up with lines, as a PrintWriter would
+            for (int i = 0; i < printed.length(); i += 7) {
+                renderer.write(printed, i, Math.min(7, printed.length() - i));
+            }
+        }
+        return rendered.toString().replace(System.lineSeparator(), "\n");
+    }
+
+    @Test
+    void listsRepeatedSubtreesOnce() throws IOException {
+        assertEquals("""
+                . org.example/app 1.0-SNAPSHOT (top level)
+                  . org.slf4j/slf4j-api 2.0.9 (newest requested)
+                  . com.fasterxml.jackson.core/jackson-databind 2.17.0 (newest requested)
+                    . com.fasterxml.jackson.core/jackson-annotations 2.17.0 (newest requested)
+                    . com.fasterxml.jackson.core/jackson-core 2.17.0 (newest requested)
+                . org.example/lib 2.1-SNAPSHOT (top level)
+                  X org.slf4j/slf4j-api 1.7.36 (:older-version, 2.0.9 selected)
+                  . com.fasterxml.jackson.core/jackson-databind 2.17.0 (newest requested, see above)
+                  X org.example/app 1.0-SNAPSHOT (:use-top)
+                """, render(TreeFormat.text, 0));
+    }
+
+    @Test
+    void stopsAtTheGivenDepth() throws IOException {
+        assertEquals("""
+                . org.example/app 1.0-SNAPSHOT (top level)
+                  . org.slf4j/slf4j-api 2.0.9 (newest requested)
+                  . com.fasterxml.jackson.core/jackson-databind 2.17.0 (newest requested)
+                . org.example/lib 2.1-SNAPSHOT (top level)
+                  X org.slf4j/slf4j-api 1.7.36 (:older-version, 2.0.9 selected)
+                  . com.fasterxml.jackson.core/jackson-databind 2.17.0 (newest requested)
+                  X org.example/app 1.0-SNAPSHOT (:use-top)
+                """, render(TreeFormat.text, 2));
+    }
+
+    @Test
+    void drawsEachLibraryOnceInDot() throws IOException {
+        assertEquals("""
+                digraph dependencies {
+                  node [shape=box];
+                  n1 [label="org.example/app\\n1.0-SNAPSHOT\\ntop level"];
+                  n2 [label="org.slf4j/slf4j-api\\n2.0.9\\nnewest requested"];
+                  n1 -> n2;
+                  n3 [label="com.fasterxml.jackson.core/jackson-databind\\n2.17.0\\nnewest requested"];
+                  n1 -> n3;
+                  n4 [label="com.fasterxml.jackson.core/jackson-annotations\\n2.17.0\\nnewest requested"];
+                  n3 -> n4;
+                  n5 [label="com.fasterxml.jackson.core/jackson-core\\n2.17.0\\nnewest requested"];
+                  n3 -> n5;
+                  n6 [label="org.example/lib\\n2.1-SNAPSHOT\\ntop level"];
+                  n7 [label="org.slf4j/slf4j-api\\n1.7.36\\n:older-version, 2.0.9 selected", style=dashed];
+                  n6 -> n7 [style=dashed];
+                  n6 -> n3;
+                  n9 [label="org.example/app\\n1.0-SNAPSHOT\\n:use-top", style=dashed];
+                  n6 -> n9 [style=dashed];
+                }
+                """, render(TreeFormat.dot, 0));
+    }
+}